@@ -27,7 +27,7 @@ import org.eclipse.smarthome.core.thing.ThingTypeUID;
 @NonNullByDefault
 public class EWPESmartBindingConstants {
 
-    private static final String BINDING_ID = "ewpesmart";
+    public static final String BINDING_ID = "ewpesmart";
 
     // List of all Thing Type UIDs
     public static final ThingTypeUID THING_TYPE_AIRCON = new ThingTypeUID(BINDING_ID, "EWPEAirCon");
@@ -37,6 +37,7 @@ public class EWPESmartBindingConstants {
     public static final String CONFIG_BROADCAST_IP = "broadcastIp";
     public static final String CONFIG_IP_ADDRESS = "ipAddress";
     public static final String CONFIG_REFRESH = "refresh";
+    public static final String CONFIG_COMMAND_WINDOW = "commandWindow";
 
     // List of all Channel ids
     public static final String CHANNEL_POWER = "power";
@@ -51,10 +52,42 @@ public class EWPESmartBindingConstants {
     public static final String CHANNEL_DRY = "dry";
     public static final String CHANNEL_HEALTH = "health";
     public static final String CHANNEL_POWER_SAVE = "powerSave";
+    public static final String CHANNEL_SLEEP = "sleep";
+    public static final String CHANNEL_SWING_HORIZONTAL = "swingHorizontal";
+    public static final String CHANNEL_QUIET = "quiet";
+    public static final String CHANNEL_HEAT_8 = "heat8";
+    public static final String CHANNEL_TEMP_UNIT = "tempUnit";
+    public static final String CHANNEL_HEAT_COOL_TYPE = "heatCoolType";
+    public static final String CHANNEL_NOISE_SET = "noiseSet";
 
     // Other constants
+    public static final String THREAD_POOL_NAME = "ewpesmart";
+    public static final String DISCOVERY_THREAD_POOL_NAME = "ewpesmart-discovery";
     public static final int DATAGRAM_SOCKET_TIMEOUT = 5000;
     public static final int MINIMUM_REFRESH_TIME = 1000;
+    public static final int DEFAULT_COMMAND_WINDOW = 50;
+    public static final String DEVICE_CACHE_FILE = "devices.bin";
+
+    // Adaptive request timeouts and retry backoff, all in ms
+    public static final int INITIAL_REQUEST_TIMEOUT = 1000;
+    // Wi-Fi units in power save mode often take a few hundred ms to answer
+    public static final int MINIMUM_REQUEST_TIMEOUT = 500;
+    public static final int RETRY_BACKOFF_BASE = 25;
+
+    // Circuit breaker for devices that stopped answering, intervals in ms
+    public static final int UNREACHABLE_AFTER_TIMEOUTS = 5;
+    public static final int MINIMUM_PROBE_INTERVAL = 10000;
+    public static final int MAXIMUM_PROBE_INTERVAL = 300000;
+
+    // Unicast subnet sweep, scan packets sent per batch and ms between batches
+    public static final String CONFIG_SWEEP_SUBNET = "sweepSubnet";
+    public static final int SWEEP_BATCH_SIZE = 8;
+    public static final int SWEEP_BATCH_INTERVAL = 20;
+
+    // Background discovery, in ms
+    public static final int BACKGROUND_DISCOVERY_INTERVAL = 60000;
+    public static final int DISCOVERY_DEVICE_TTL = 300000;
+    public static final int BACKGROUND_SWEEP_INTERVAL = 1800000;
 
     public static final int BIND_DEVICE_TRIES = 10;
     public static final int SEND_MESSAGE_TRIES = 10;
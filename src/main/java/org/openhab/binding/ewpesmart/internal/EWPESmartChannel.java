@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ewpesmart.internal;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.smarthome.core.library.types.DecimalType;
+import org.eclipse.smarthome.core.library.types.OnOffType;
+import org.eclipse.smarthome.core.thing.ChannelUID;
+import org.eclipse.smarthome.core.types.Command;
+import org.eclipse.smarthome.core.types.State;
+import org.openhab.binding.ewpesmart.internal.device.EWPEDevice;
+import org.openhab.binding.ewpesmart.internal.device.EWPEExecResult;
+import org.openhab.binding.ewpesmart.internal.device.EWPEStatusColumn;
+import org.openhab.binding.ewpesmart.internal.device.EWPEStatusSnapshot;
+
+/**
+ * The {@link EWPESmartChannel} binds a channel of a thing to the status column it
+ * exposes, as defined by the {@link EWPEStatusColumn} registry, and converts between
+ * column values, states and commands. The handler builds one descriptor per channel.
+ *
+ * @author Pawel Bogut - Initial contribution
+ */
+@NonNullByDefault
+public class EWPESmartChannel {
+
+    private final ChannelUID channelUID;
+    private final EWPEStatusColumn column;
+    private volatile boolean linked;
+
+    private EWPESmartChannel(ChannelUID channelUID, EWPEStatusColumn column, boolean linked) {
+        this.channelUID = channelUID;
+        this.column = column;
+        this.linked = linked;
+    }
+
+    /**
+     * Creates the descriptor for the given channel from the column registry, or returns
+     * null if no column is exposed by the channel.
+     */
+    public static @Nullable EWPESmartChannel create(ChannelUID channelUID, boolean linked) {
+        EWPEStatusColumn column = EWPEStatusColumn.fromChannelId(channelUID.getId());
+        return column == null ? null : new EWPESmartChannel(channelUID, column, linked);
+    }
+
+    public ChannelUID getChannelUID() {
+        return channelUID;
+    }
+
+    public EWPEStatusColumn getColumn() {
+        return column;
+    }
+
+    public boolean isLinked() {
+        return linked;
+    }
+
+    public void setLinked(boolean linked) {
+        this.linked = linked;
+    }
+
+    /**
+     * Converts the column value of the given status to the channel state.
+     */
+    public @Nullable State toState(EWPEStatusSnapshot status) {
+        int value = status.get(column);
+        switch (column.getCodec()) {
+            case ON_OFF:
+                return value == 1 ? OnOffType.ON : OnOffType.OFF;
+            case ROOM_TEMPERATURE:
+                Integer roomTemperature = EWPEDevice.getRoomTemperature(status);
+                return roomTemperature == null ? null : new DecimalType(roomTemperature);
+            default:
+                return new DecimalType(value);
+        }
+    }
+
+    /**
+     * Converts the command to the column value, or returns null if the command is not supported.
+     */
+    public @Nullable Integer fromCommand(Command command) {
+        if (command instanceof OnOffType) {
+            return command == OnOffType.ON ? 1 : 0;
+        }
+        if (command instanceof DecimalType) {
+            return ((DecimalType) command).intValue();
+        }
+        return null;
+    }
+
+    /**
+     * Queues the command for the device. Commands to read only channels are ignored.
+     *
+     * @return the pending result of the command, or null if the command is not supported by this channel
+     */
+    public @Nullable CompletableFuture<EWPEExecResult> apply(EWPEDevice device, Command command) {
+        Integer value = fromCommand(command);
+        if (!column.isWritable() || value == null) {
+            return null;
+        }
+        return device.SetStatusColumn(column, value);
+    }
+}
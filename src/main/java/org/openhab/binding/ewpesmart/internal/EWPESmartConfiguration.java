@@ -27,6 +27,7 @@ public class EWPESmartConfiguration {
     public @Nullable String broadcastIp; //EWPESmartBindingConstants.CONFIG_BROADCAST_IP
     public @Nullable String ipAddress; //EWPESmartBindingConstants.CONFIG_IP_ADDRESS
     public Integer refresh; //EWPESmartBindingConstants.CONFIG_REFRESH
+    public @Nullable Integer commandWindow; //EWPESmartBindingConstants.CONFIG_COMMAND_WINDOW
 
     public String getIpAddress() {
         return ipAddress;
@@ -40,6 +41,10 @@ public class EWPESmartConfiguration {
         return refresh;
     }
 
+    public int getCommandWindow() {
+        return commandWindow == null ? EWPESmartBindingConstants.DEFAULT_COMMAND_WINDOW : commandWindow.intValue();
+    }
+
     public boolean isValid() {
         try {
             if (ipAddress.isEmpty()) {
@@ -51,6 +56,9 @@ public class EWPESmartConfiguration {
             if (refresh.intValue() <= 0) {
                 throw new IllegalArgumentException("Refresh time must be positive number!");
             }
+            if (getCommandWindow() < 0) {
+                throw new IllegalArgumentException("Command window must not be negative!");
+            }
             return true;
         } catch (Exception err) {
             return false;
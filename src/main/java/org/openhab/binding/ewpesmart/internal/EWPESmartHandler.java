@@ -15,19 +15,26 @@ package org.openhab.binding.ewpesmart.internal;
 import static org.openhab.binding.ewpesmart.internal.EWPESmartBindingConstants.*;
 
 import org.openhab.binding.ewpesmart.internal.device.EWPEDevice;
+import org.openhab.binding.ewpesmart.internal.device.EWPEDeviceCache;
 import org.openhab.binding.ewpesmart.internal.device.EWPEDeviceFinder;
+import org.openhab.binding.ewpesmart.internal.device.EWPEDeviceRegistry;
+import org.openhab.binding.ewpesmart.internal.device.EWPEExecResult;
+import org.openhab.binding.ewpesmart.internal.device.EWPERoundTripEstimator;
+import org.openhab.binding.ewpesmart.internal.device.EWPEStatusColumn;
+import org.openhab.binding.ewpesmart.internal.device.EWPEStatusPoller;
+import org.openhab.binding.ewpesmart.internal.device.EWPEStatusSnapshot;
+import org.openhab.binding.ewpesmart.internal.device.EWPEStatusStore;
+import org.openhab.binding.ewpesmart.internal.network.EWPETransport;
 import java.io.IOException;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.ScheduledFuture;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
-import org.eclipse.smarthome.core.library.types.OnOffType;
-import org.eclipse.smarthome.core.library.types.DecimalType;
 import org.eclipse.smarthome.core.thing.Channel;
 import org.eclipse.smarthome.core.thing.ChannelUID;
 import org.eclipse.smarthome.core.thing.Thing;
@@ -47,50 +54,45 @@ import org.slf4j.LoggerFactory;
  * @author Pawel Bogut - Initial contribution
  */
 @NonNullByDefault
-public class EWPESmartHandler extends BaseThingHandler {
+public class EWPESmartHandler extends BaseThingHandler implements EWPEStatusPoller.StatusListener {
 
     private final Logger logger = LoggerFactory.getLogger(EWPESmartHandler.class);
     private @Nullable EWPEDeviceFinder deviceFinder = null;
     private @Nullable EWPEDevice thisDevice = null;
-    private @Nullable DatagramSocket clientSocket = null;
+    private final EWPETransport transport;
+    private final EWPEStatusPoller poller;
+    private final EWPEDeviceCache deviceCache;
+    private final EWPEStatusStore statusStore;
+    private final EWPEDeviceRegistry deviceRegistry;
     private Integer refreshTime = 2;
-    private boolean isRefreshing = false;
-    private @Nullable ScheduledFuture<?> refreshTask;
 
     private String ipAddress = "";
     private String broadcastAddress = "";
-    private long lastRefreshTime = 0;
+    private @Nullable EWPEStatusSnapshot lastStatus = null;
+    private @Nullable EWPEStatusSnapshot savedStatus = null;
+    private Map<String, EWPESmartChannel> channelsById = new HashMap<>();
+    private @Nullable EWPESmartChannel[] channelsByColumn = new EWPESmartChannel[EWPEStatusColumn.count()];
 
     private @Nullable EWPESmartConfiguration config;
 
-    public EWPESmartHandler(Thing thing) {
+    public EWPESmartHandler(Thing thing, EWPETransport transport, EWPEStatusPoller poller,
+            EWPEDeviceCache deviceCache, EWPEStatusStore statusStore, EWPEDeviceRegistry deviceRegistry) {
         super(thing);
+        this.transport = transport;
+        this.poller = poller;
+        this.deviceCache = deviceCache;
+        this.statusStore = statusStore;
+        this.deviceRegistry = deviceRegistry;
     }
 
     @Override
     public void handleCommand(ChannelUID channelUID, Command command) {
         logger.debug("Channel update: {}", channelUID.getId());
-        // due to timeouts that happens often lets try to update few times
-        int tryNo = 1;
-        while(true) {
-            try {
-                doHandleCommand(channelUID, command);
-                break;
-            } catch (SocketTimeoutException e) {
-                logger.debug("EWPESmart: failed to send command to airconditioners due to Timeout, try no. {}", tryNo);
-                if (tryNo >= SEND_MESSAGE_TRIES) {
-                    logger.warn("EWPESmart: failed to update channel {} due to connection timeout after {} tries", channelUID.getId(), tryNo);
-                    updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR,
-                            "Could not control device due to multiple connection timeouts.");
-                    break; // just give up
-                }
-                tryNo++;
-            } catch (Exception e) {
-                logger.warn("EWPESmart: failed to update channel {} due to {} ", channelUID.getId(), e.getMessage());
-                updateStatus(ThingStatus.OFFLINE);
-                // e.printStackTrace();
-                break;
-            }
+        // The command is queued for the device, so this never waits for the device to answer
+        try {
+            doHandleCommand(channelUID, command);
+        } catch (RuntimeException e) {
+            logger.warn("EWPESmart: failed to update channel {} due to {} ", channelUID.getId(), e.getMessage());
         }
     }
 
@@ -102,6 +104,8 @@ public class EWPESmartHandler extends BaseThingHandler {
         logger.debug("EWPESmartHandler config for {} is {}", thing.getUID(), config);
 
         updateStatus(ThingStatus.UNKNOWN);
+        buildChannelTable();
+        restoreStatus();
 
         if (!config.isValid()) {
             updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.CONFIGURATION_ERROR,
@@ -111,7 +115,8 @@ public class EWPESmartHandler extends BaseThingHandler {
                 int tryNo = 1;
                 while(true) {
                     try {
-                        bindDevice();
+                        // the device known from discovery may have moved, so a retry scans again
+                        bindDevice(tryNo == 1);
                         break;
                     } catch (SocketTimeoutException e) {
                         logger.debug("EWPESmart: failed to scan for airconditioners due to Timeout, try no. {}", tryNo);
@@ -121,6 +126,12 @@ public class EWPESmartHandler extends BaseThingHandler {
                                     "Could not bind device due to multiple connection timeouts.");
                             break; // just give up
                         }
+                        try {
+                            Thread.sleep(EWPERoundTripEstimator.retryDelay(tryNo));
+                        } catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
                         tryNo++;
                     }
                 }
@@ -130,34 +141,122 @@ public class EWPESmartHandler extends BaseThingHandler {
         logger.debug("Finished initializing!");
     }
 
-    private void bindDevice() throws SocketTimeoutException {
+    /**
+     * Builds the channel descriptors used to dispatch commands and publish status updates.
+     */
+    private void buildChannelTable() {
+        Map<String, EWPESmartChannel> byId = new HashMap<>();
+        @Nullable
+        EWPESmartChannel[] byColumn = new EWPESmartChannel[EWPEStatusColumn.count()];
+        for (Channel channel : getThing().getChannels()) {
+            EWPESmartChannel descriptor = EWPESmartChannel.create(channel.getUID(), isLinked(channel.getUID()));
+            if (descriptor != null) {
+                byId.put(channel.getUID().getId(), descriptor);
+                byColumn[descriptor.getColumn().ordinal()] = descriptor;
+            }
+        }
+        channelsById = byId;
+        channelsByColumn = byColumn;
+    }
+
+    /**
+     * Publishes the status persisted before the restart, until the device reports its
+     * live status. The first live status replaces every restored channel.
+     */
+    private void restoreStatus() {
+        EWPEStatusSnapshot status = statusStore.load(thing.getUID().getAsString());
+        if (status == null) {
+            return;
+        }
+        logger.debug("EWPESmart: publishing the last known status of {} until the device answers",
+                thing.getUID());
+        lastStatus = status;
+        savedStatus = status;
+        publishStatus(status, status.getPresentMask());
+    }
+
+    @Override
+    public void channelLinked(ChannelUID channelUID) {
+        EWPESmartChannel channel = channelsById.get(channelUID.getId());
+        if (channel != null) {
+            channel.setLinked(true);
+            EWPEStatusSnapshot status = lastStatus;
+            if (status != null && status.isPresent(channel.getColumn())) {
+                publishChannel(channel, status);
+            }
+        }
+        super.channelLinked(channelUID);
+    }
+
+    @Override
+    public void channelUnlinked(ChannelUID channelUID) {
+        EWPESmartChannel channel = channelsById.get(channelUID.getId());
+        if (channel != null) {
+            channel.setLinked(false);
+        }
+        super.channelUnlinked(channelUID);
+    }
+
+    /**
+     * @param useRegistry whether a device seen by discovery may be bound without scanning
+     */
+    private void bindDevice(boolean useRegistry) throws SocketTimeoutException {
         ipAddress = config.getIpAddress();
         refreshTime = config.getRefresh();
         broadcastAddress = config.getBroadcastIp();
 
+        // The device of an earlier try must not take the replies to the scans of this one
+        EWPEDevice previousDevice = thisDevice;
+        if (previousDevice != null) {
+            previousDevice.detach();
+            thisDevice = null;
+        }
+
+        // A device bound before the restart may still accept its key
+        if (restoreCachedDevice()) {
+            return;
+        }
+
         // Now Scan For Airconditioners
         try {
             // First calculate the Broadcast address based on the available interfaces
             InetAddress broadcastIp = InetAddress.getByName(broadcastAddress);
 
-            // Create a new Datagram socket with a specified timeout
-            clientSocket = new DatagramSocket();
-            clientSocket.setSoTimeout(DATAGRAM_SOCKET_TIMEOUT);
-
-            // Firstly, lets find all Gree Airconditioners on the network
+            // Discovery may have seen the device already, otherwise ask it directly,
+            // so the bind does not wait for a full scan
             deviceFinder = new EWPEDeviceFinder(broadcastIp);
-            deviceFinder.Scan(clientSocket);
-            logger.debug("EWPESmart found {} Devices during scanning", deviceFinder.GetScannedDeviceCount());
+            thisDevice = useRegistry ? deviceRegistry.getDeviceByIPAddress(ipAddress) : null;
+            if (thisDevice == null) {
+                thisDevice = deviceFinder.ScanDevice(transport, InetAddress.getByName(ipAddress));
+            }
+            if (thisDevice == null) {
+                // Fall back to finding all Gree Airconditioners on the network
+                logger.debug("EWPESmart device {} did not answer directly, scanning {}", ipAddress,
+                        broadcastAddress);
+                deviceFinder.Scan(transport);
+                logger.debug("EWPESmart found {} Devices during scanning", deviceFinder.GetScannedDeviceCount());
 
-            // Now check that this one is amongst the air conditioners that responded.
-            thisDevice = deviceFinder.GetDeviceByIPAddress(ipAddress);
+                // Now check that this one is amongst the air conditioners that responded.
+                thisDevice = deviceFinder.GetDeviceByIPAddress(ipAddress);
+            }
             logger.debug("EWPESmart found device {}", thisDevice);
             if (thisDevice != null) {
                 // Ok, our device responded
                 // Now let's Bind with it
-                thisDevice.BindWithDevice(clientSocket);
+                thisDevice.setCommandWindow(config.getCommandWindow());
+                thisDevice.attach(transport);
+                try {
+                    thisDevice.BindWithDevice();
+                } finally {
+                    if (!thisDevice.getIsBound()) {
+                        // an attached device takes every reply from its address, scan replies too
+                        thisDevice.detach();
+                    }
+                }
                 if (thisDevice.getIsBound()) {
                     logger.info("EWPESmart AirConditioner Device {} was Succesfully bound", thing.getUID());
+                    deviceCache.store(thisDevice);
+                    deviceRegistry.update(thisDevice);
                     updateStatus(ThingStatus.ONLINE);
 
                     // Start the automatic refresh cycles
@@ -178,204 +277,165 @@ public class EWPESmartHandler extends BaseThingHandler {
         updateStatus(ThingStatus.OFFLINE);
     }
 
+    /**
+     * Verifies the cached key of the configured device with a single status request.
+     *
+     * @return true if the device answered and is bound
+     */
+    private boolean restoreCachedDevice() {
+        EWPEDevice device = deviceCache.restore(ipAddress);
+        if (device == null) {
+            return false;
+        }
+        device.setCommandWindow(config.getCommandWindow());
+        device.attach(transport);
+        try {
+            EWPEStatusSnapshot status = device.requestStatus().get();
+            device.setIsBound(Boolean.TRUE);
+            thisDevice = device;
+            logger.info("EWPESmart AirConditioner Device {} was bound with its cached key", thing.getUID());
+            updateStatus(ThingStatus.ONLINE);
+            statusReceived(status);
+            startAutomaticRefresh();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.debug("EWPESmart: cached key of device {} was not accepted due to {}", thing.getUID(),
+                    e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+        }
+        device.detach();
+        return false;
+    }
+
     private void startAutomaticRefresh() {
-        Runnable refresher = new Runnable() {
-            @Override
-            public void run() {
-                if (thisDevice == null || !thisDevice.getIsBound()) {
-                    return;
-                }
+        // The status of all devices is polled from one central sweep
+        poller.register(thisDevice, refreshTime.intValue(), this);
+        logger.debug("Start EWPESmart automatic refresh with {} second intervals", refreshTime.intValue());
+    }
 
-                try {
-                    logger.debug("EWPESmart executing automatic update of values");
-                    // safeguard for multiple REFRESH commands
-                    if (isMinimumRefreshTimeExceeded() && !isRefreshing) {
-                        isRefreshing = true;
-                        logger.debug("Fetching status values from device.");
-                        // Get the current status from the Airconditioner
-                        thisDevice.getDeviceStatus(clientSocket);
-                    } else {
-                        logger.debug(
-                                "Skipped fetching status values from device because minimum refresh time not reached");
-                    }
+    @Override
+    public void statusReceived(EWPEStatusSnapshot status) {
+        EWPEDevice device = thisDevice;
+        if (device != null) {
+            deviceRegistry.seen(device);
+        }
+        // a failed command took the thing offline, but the device answers
+        if (getThing().getStatus() != ThingStatus.ONLINE) {
+            updateStatus(ThingStatus.ONLINE);
+        }
+        // The device hands out the previous snapshot when the response did not change
+        if (status == lastStatus) {
+            return;
+        }
+        EWPEStatusSnapshot previous = lastStatus;
+        lastStatus = status;
+        // The changed mask is relative to what commands already published, so compare
+        // with the snapshot on disk to not miss values set by commands
+        EWPEStatusSnapshot saved = savedStatus;
+        if (!status.isRestored() && (saved == null || status.diff(saved) != 0)) {
+            statusStore.save(thing.getUID().getAsString(), status);
+            savedStatus = status;
+        }
 
-                    // Update All Channels
-                    List<Channel> channels = getThing().getChannels();
-                    for (Channel channel : channels) {
-                        publishChannelIfLinked(channel.getUID());
-                    }
-                } catch (SocketTimeoutException e) {
-                    //we dont care too much, will try again
-                    logger.debug("EWPESmart: failed during automatic update of airconditioner values due to Timeout");
-                } catch (Exception e) {
-                    logger.warn("EWPESmart: failed during automatic update of airconditioner values due to {} ({}) ", e.getMessage(), e.getClass());
-                    // e.printStackTrace();
-                } finally {
-                    isRefreshing = false;
-                }
+        // Live values replace all restored ones, even those that did not change
+        publishStatus(status, previous != null && previous.isRestored() ? status.getPresentMask()
+                : status.getChangedMask());
+    }
 
-                logger.debug("EWPESmart refresh");
+    private void publishStatus(EWPEStatusSnapshot status, long changedMask) {
+        // Only walk the columns that changed since the last status
+        @Nullable
+        EWPESmartChannel[] byColumn = channelsByColumn;
+        for (long changed = changedMask; changed != 0; changed &= changed - 1) {
+            EWPESmartChannel channel = byColumn[Long.numberOfTrailingZeros(changed)];
+            if (channel != null) {
+                publishChannel(channel, status);
             }
-        };
+        }
+    }
 
-        refreshTask = scheduler.scheduleWithFixedDelay(refresher, 0, refreshTime.intValue(), TimeUnit.SECONDS);
-        logger.debug("Start EWPESmart automatic refresh with {} second intervals", refreshTime.intValue());
+    @Override
+    public void statusFailed(Throwable error) {
+        if (error instanceof SocketTimeoutException) {
+            //we dont care too much, will try again
+            logger.debug("EWPESmart: failed during automatic update of airconditioner values due to Timeout");
+        } else {
+            logger.warn("EWPESmart: failed during automatic update of airconditioner values due to {} ({}) ",
+                    error.getMessage(), error.getClass());
+        }
     }
 
-    private boolean isMinimumRefreshTimeExceeded() {
-        long currentTime = System.currentTimeMillis();
-        long timeSinceLastRefresh = currentTime - lastRefreshTime;
-        if (timeSinceLastRefresh < MINIMUM_REFRESH_TIME) {
-            return false;
+    @Override
+    public void deviceUnreachable() {
+        logger.info("EWPESmart: device {} does not answer anymore", thing.getUID());
+        updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR,
+                "Device does not answer, waiting for it to come back.");
+    }
+
+    @Override
+    public void deviceRecovered() {
+        logger.info("EWPESmart AirConditioner Device {} was Succesfully rebound", thing.getUID());
+        EWPEDevice device = thisDevice;
+        if (device != null) {
+            // the device may hand out a new key after a power cycle
+            deviceCache.store(device);
         }
-        lastRefreshTime = currentTime;
-        return true;
+        updateStatus(ThingStatus.ONLINE);
     }
 
-    private void doHandleCommand(ChannelUID channelUID, Command command) throws Exception {
+    private void doHandleCommand(ChannelUID channelUID, Command command) {
         if (command instanceof RefreshType) {
             // TODO: handle data refresh
             logger.debug("EWPESmart refresh {}", channelUID.getId());
-        } else if (CHANNEL_POWER.equals(channelUID.getId())) {
-            if (command.toString() == "ON") {
-                thisDevice.SetDevicePower(clientSocket, 1);
-            } else {
-                thisDevice.SetDevicePower(clientSocket, 0);
-            }
-        } else if (CHANNEL_MODE.equals(channelUID.getId())) {
-            int val = ((DecimalType) command).intValue();
-            thisDevice.SetDeviceMode(clientSocket, val);
-        } else if (CHANNEL_TURBO.equals(channelUID.getId())) {
-            if (command.toString() == "ON") {
-                thisDevice.SetDeviceTurbo(clientSocket, 1);
-            } else {
-                thisDevice.SetDeviceTurbo(clientSocket, 0);
-            }
-        } else if (CHANNEL_LIGHT.equals(channelUID.getId())) {
-            if (command.toString() == "ON") {
-                thisDevice.SetDeviceLight(clientSocket, 1);
-            } else {
-                thisDevice.SetDeviceLight(clientSocket, 0);
-            }
-        } else if (CHANNEL_TEMP.equals(channelUID.getId())) {
-            int val = ((DecimalType) command).intValue();
-            thisDevice.SetDeviceTempSet(clientSocket, val);
-        } else if (CHANNEL_SWING_VERTICAL.equals(channelUID.getId())) {
-            int val = ((DecimalType) command).intValue();
-            thisDevice.SetDeviceSwingVertical(clientSocket, val);
-        } else if (CHANNEL_WIND_SPEED.equals(channelUID.getId())) {
-            int val = ((DecimalType) command).intValue();
-            thisDevice.SetDeviceWindspeed(clientSocket, val);
-        } else if (CHANNEL_AIR.equals(channelUID.getId())) {
-            if (command.toString() == "ON") {
-                thisDevice.SetDeviceAir(clientSocket, 1);
-            } else {
-                thisDevice.SetDeviceAir(clientSocket, 0);
-            }
-        } else if (CHANNEL_DRY.equals(channelUID.getId())) {
-            if (command.toString() == "ON") {
-                thisDevice.SetDeviceDry(clientSocket, 1);
-            } else {
-                thisDevice.SetDeviceDry(clientSocket, 0);
-            }
-        } else if (CHANNEL_HEALTH.equals(channelUID.getId())) {
-            if (command.toString() == "ON") {
-                thisDevice.SetDeviceHealth(clientSocket, 1);
-            } else {
-                thisDevice.SetDeviceHealth(clientSocket, 0);
-            }
-        } else if (CHANNEL_POWER_SAVE.equals(channelUID.getId())) {
-            if (command.toString() == "ON") {
-                thisDevice.SetDevicePwrSaving(clientSocket, 1);
-            } else {
-                thisDevice.SetDevicePwrSaving(clientSocket, 0);
-            }
+            return;
+        }
+        EWPESmartChannel channel = channelsById.get(channelUID.getId());
+        EWPEDevice device = thisDevice;
+        if (channel == null || device == null) {
+            return;
         }
+        CompletableFuture<EWPEExecResult> result = channel.apply(device, command);
+        if (result == null) {
+            logger.debug("EWPESmart: command {} is not supported by channel {}", command, channelUID.getId());
+            return;
+        }
+        result.whenComplete((execResult, error) -> {
+            if (error != null) {
+                commandFailed(channelUID, error);
+            }
+        });
     }
 
-    private void publishChannelIfLinked(ChannelUID channelUID) {
-        String channelID = channelUID.getId();
-        boolean statusChanged = false;
-        // if (channelID != null && isLinked(channelID)) {
-        if (thisDevice != null && thisDevice.getIsBound() && isLinked(channelID)) {
-            State state = null;
-            Integer stateValue = null;
-            if (CHANNEL_POWER.equals(channelID)) {
-                stateValue = thisDevice.GetIntStatusValIfChanged("Pow");
-                if (stateValue != null) {
-                    state = GetOnOffFromInt(stateValue);
-                }
-            } else if (CHANNEL_MODE.equals(channelID)) {
-                stateValue = thisDevice.GetIntStatusValIfChanged("Mod");
-                if (stateValue != null) {
-                    state = new DecimalType(stateValue);
-                }
-            } else if (CHANNEL_TURBO.equals(channelID)) {
-                stateValue = thisDevice.GetIntStatusValIfChanged("Tur");
-                if (stateValue != null) {
-                    state = GetOnOffFromInt(stateValue);
-                }
-            } else if (CHANNEL_LIGHT.equals(channelID)) {
-                stateValue = thisDevice.GetIntStatusValIfChanged("Lig");
-                if (stateValue != null) {
-                    state = GetOnOffFromInt(stateValue);
-                }
-            } else if (CHANNEL_TEMP.equals(channelID)) {
-                stateValue = thisDevice.GetIntStatusValIfChanged("SetTem");
-                if (stateValue != null) {
-                    state = new DecimalType(stateValue);
-                }
-            } else if (CHANNEL_TEMP_SENSOR.equals(channelID)) {
-                stateValue = thisDevice.GetIntStatusValIfChanged("TemSen");
-                if (stateValue != null) {
-                    state = new DecimalType(thisDevice.GetDeviceTempSen());
-                }
-            } else if (CHANNEL_SWING_VERTICAL.equals(channelID)) {
-                stateValue = thisDevice.GetIntStatusValIfChanged("SwUpDn");
-                if (stateValue != null) {
-                    state = new DecimalType(stateValue);
-                }
-            } else if (CHANNEL_WIND_SPEED.equals(channelID)) {
-                stateValue = thisDevice.GetIntStatusValIfChanged("WdSpd");
-                if (stateValue != null) {
-                    state = new DecimalType(stateValue);
-                }
-            } else if (CHANNEL_AIR.equals(channelID)) {
-                stateValue = thisDevice.GetIntStatusValIfChanged("Air");
-                if (stateValue != null) {
-                    state = GetOnOffFromInt(stateValue);
-                }
-            } else if (CHANNEL_DRY.equals(channelID)) {
-                stateValue = thisDevice.GetIntStatusValIfChanged("Blo");
-                if (stateValue != null) {
-                    state = GetOnOffFromInt(stateValue);
-                }
-            } else if (CHANNEL_HEALTH.equals(channelID)) {
-                stateValue = thisDevice.GetIntStatusValIfChanged("Health");
-                if (stateValue != null) {
-                    state = GetOnOffFromInt(stateValue);
-                }
-            } else if (CHANNEL_POWER_SAVE.equals(channelID)) {
-                stateValue = thisDevice.GetIntStatusValIfChanged("SvSt");
-                if (stateValue != null) {
-                    state = GetOnOffFromInt(stateValue);
-                }
-            }
-            if (state != null) {
-                logger.debug("Updating channel state for ChannelID {} : {}", channelID, state);
-                updateState(channelID, state);
-            }
+    private void commandFailed(ChannelUID channelUID, Throwable error) {
+        if (error instanceof SocketTimeoutException) {
+            // the command queue already retried the command, the poller probes the device from now on
+            logger.warn("EWPESmart: failed to update channel {} due to connection timeout", channelUID.getId());
+            updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR,
+                    "Could not control device due to multiple connection timeouts.");
+        } else {
+            logger.warn("EWPESmart: failed to update channel {} due to {} ", channelUID.getId(), error.getMessage());
+            updateStatus(ThingStatus.OFFLINE);
         }
     }
 
-    private OnOffType GetOnOffFromInt(Integer stateValue) {
-        if (stateValue.intValue() == 1) {
-            return OnOffType.ON;
-        } else {
-            return OnOffType.OFF;
+    private void publishChannel(EWPESmartChannel channel, EWPEStatusSnapshot status) {
+        if (!channel.isLinked()) {
+            return;
+        }
+        State state = channel.toState(status);
+        if (state != null) {
+            logger.debug("Updating channel state for ChannelID {} : {}", channel.getChannelUID().getId(), state);
+            updateState(channel.getChannelUID(), state);
         }
     }
 
+    @Override
+    public void handleRemoval() {
+        statusStore.remove(thing.getUID().getAsString());
+        super.handleRemoval();
+    }
+
     /**
      * Shutdown thing, make sure background jobs are canceled
      */
@@ -385,11 +445,11 @@ public class EWPESmartHandler extends BaseThingHandler {
         updateStatus(ThingStatus.OFFLINE);
         logger.debug("EWPESmart Shutdown thing {}", thing.getUID());
         try {
-            if (refreshTask != null) {
-                refreshTask.cancel(true);
-                refreshTask = null;
+            if (thisDevice != null) {
+                poller.unregister(thisDevice);
+                logger.debug("EWPESmart automatic refresh stopped for thing {}", thing.getUID());
+                thisDevice.detach();
             }
-            logger.debug("EWPESmart refreshTask stopped for thing {}", thing.getUID());
         } catch (Exception e) {
             logger.debug("EWPESmart Exception on dispose(): {} ({})", e.getMessage(), e.getClass());
         } finally {
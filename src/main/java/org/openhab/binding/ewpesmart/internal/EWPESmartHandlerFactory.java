@@ -14,18 +14,26 @@ package org.openhab.binding.ewpesmart.internal;
 
 import static org.openhab.binding.ewpesmart.internal.EWPESmartBindingConstants.*;
 
+import java.io.File;
 import java.util.Collections;
 import java.util.Set;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
+import org.eclipse.smarthome.config.core.ConfigConstants;
+import org.eclipse.smarthome.core.common.ThreadPoolManager;
 import org.eclipse.smarthome.core.thing.Thing;
 import org.eclipse.smarthome.core.thing.ThingTypeUID;
 import org.eclipse.smarthome.core.thing.binding.BaseThingHandlerFactory;
 import org.eclipse.smarthome.core.thing.binding.ThingHandler;
 import org.eclipse.smarthome.core.thing.binding.ThingHandlerFactory;
+import org.openhab.binding.ewpesmart.internal.device.EWPEDeviceCache;
+import org.openhab.binding.ewpesmart.internal.device.EWPEDeviceRegistry;
+import org.openhab.binding.ewpesmart.internal.device.EWPEStatusPoller;
+import org.openhab.binding.ewpesmart.internal.device.EWPEStatusStore;
+import org.openhab.binding.ewpesmart.internal.network.EWPETransport;
 import org.osgi.service.component.annotations.Component;
-
+import org.osgi.service.component.annotations.Reference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,6 +50,13 @@ public class EWPESmartHandlerFactory extends BaseThingHandlerFactory {
 
     private static final Set<ThingTypeUID> SUPPORTED_THING_TYPES_UIDS = Collections.singleton(THING_TYPE_AIRCON);
     private final Logger logger = LoggerFactory.getLogger(EWPESmartHandlerFactory.class);
+    private final EWPEStatusPoller poller = new EWPEStatusPoller(
+            ThreadPoolManager.getScheduledPool(THREAD_POOL_NAME));
+    private final File dataFolder = new File(ConfigConstants.getUserDataFolder(), BINDING_ID);
+    private final EWPEDeviceCache deviceCache = new EWPEDeviceCache(new File(dataFolder, DEVICE_CACHE_FILE));
+    private final EWPEStatusStore statusStore = new EWPEStatusStore(dataFolder);
+    private @Nullable EWPETransport transport;
+    private @Nullable EWPEDeviceRegistry deviceRegistry;
 
     @Override
     public boolean supportsThingType(ThingTypeUID thingTypeUID) {
@@ -54,10 +69,30 @@ public class EWPESmartHandlerFactory extends BaseThingHandlerFactory {
     protected @Nullable ThingHandler createHandler(Thing thing) {
         ThingTypeUID thingTypeUID = thing.getThingTypeUID();
 
-        if (THING_TYPE_AIRCON.equals(thingTypeUID)) {
-            return new EWPESmartHandler(thing);
+        EWPETransport currentTransport = transport;
+        EWPEDeviceRegistry currentRegistry = deviceRegistry;
+        if (THING_TYPE_AIRCON.equals(thingTypeUID) && currentTransport != null && currentRegistry != null) {
+            return new EWPESmartHandler(thing, currentTransport, poller, deviceCache, statusStore, currentRegistry);
         }
 
         return null;
     }
+
+    @Reference
+    protected void setTransport(EWPETransport transport) {
+        this.transport = transport;
+    }
+
+    protected void unsetTransport(EWPETransport transport) {
+        this.transport = null;
+    }
+
+    @Reference
+    protected void setDeviceRegistry(EWPEDeviceRegistry deviceRegistry) {
+        this.deviceRegistry = deviceRegistry;
+    }
+
+    protected void unsetDeviceRegistry(EWPEDeviceRegistry deviceRegistry) {
+        this.deviceRegistry = null;
+    }
 }
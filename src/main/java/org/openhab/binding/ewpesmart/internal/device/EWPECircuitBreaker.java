@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ewpesmart.internal.device;
+
+import static org.openhab.binding.ewpesmart.internal.EWPESmartBindingConstants.*;
+
+/**
+ * The EWPECircuitBreaker tracks whether an Air Conditioner still answers. After
+ * {@link org.openhab.binding.ewpesmart.internal.EWPESmartBindingConstants#UNREACHABLE_AFTER_TIMEOUTS}
+ * consecutive timeouts the breaker opens and the device is only probed now and then,
+ * the probe interval doubling from
+ * {@link org.openhab.binding.ewpesmart.internal.EWPESmartBindingConstants#MINIMUM_PROBE_INTERVAL} up to
+ * {@link org.openhab.binding.ewpesmart.internal.EWPESmartBindingConstants#MAXIMUM_PROBE_INTERVAL}.
+ * Any answer closes it again.
+ *
+ * @author Pawel Bogut - Initial contribution
+ */
+public class EWPECircuitBreaker {
+
+    private int consecutiveTimeouts = 0;
+    private boolean open = false;
+    private long probeInterval = MINIMUM_PROBE_INTERVAL;
+    private long nextProbe = 0;
+
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Records a request that was answered.
+     *
+     * @return true if this closed the breaker
+     */
+    public synchronized boolean succeeded() {
+        consecutiveTimeouts = 0;
+        if (!open) {
+            return false;
+        }
+        open = false;
+        probeInterval = MINIMUM_PROBE_INTERVAL;
+        return true;
+    }
+
+    /**
+     * Records a request that timed out.
+     *
+     * @return true if this opened the breaker
+     */
+    public synchronized boolean timedOut() {
+        consecutiveTimeouts++;
+        if (open || consecutiveTimeouts < UNREACHABLE_AFTER_TIMEOUTS) {
+            return false;
+        }
+        open = true;
+        probeInterval = MINIMUM_PROBE_INTERVAL;
+        nextProbe = System.currentTimeMillis() + probeInterval;
+        return true;
+    }
+
+    /**
+     * Claims the next probe of an open breaker.
+     *
+     * @return true if the device may be probed now
+     */
+    public synchronized boolean tryProbe(long now) {
+        if (!open || now < nextProbe) {
+            return false;
+        }
+        probeInterval = Math.min(probeInterval * 2, MAXIMUM_PROBE_INTERVAL);
+        nextProbe = now + probeInterval;
+        return true;
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ewpesmart.internal.device;
+
+import static org.openhab.binding.ewpesmart.internal.EWPESmartBindingConstants.SEND_MESSAGE_TRIES;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The EWPECommandQueue is the single writer for the "cmd" packs of one Air Conditioner.
+ * Submitted parameters are merged, the latest value per parameter winning, and sent in
+ * one pack once the command window has passed. Only one pack is in flight at a time;
+ * parameters submitted meanwhile are merged and sent as soon as it was answered. A pack
+ * that timed out is merged back, so newer values still win, and resent after an
+ * exponential backoff with jitter up to
+ * {@link org.openhab.binding.ewpesmart.internal.EWPESmartBindingConstants#SEND_MESSAGE_TRIES}
+ * times. Nothing ever blocks on the device, so the queues of different devices are
+ * independent of each other.
+ *
+ * @author Pawel Bogut - Initial contribution
+ */
+public class EWPECommandQueue {
+
+    // more than every column of the device, so only a runaway caller hits this bound
+    private static final int MAX_PENDING_PARAMETERS = 64;
+
+    private final Logger logger = LoggerFactory.getLogger(EWPECommandQueue.class);
+    private final EWPEDevice device;
+    private final Map<String, Integer> pending = new LinkedHashMap<>();
+    private final List<CompletableFuture<EWPEExecResult>> waiting = new ArrayList<>();
+    private int pendingAttempt = 1;
+    private boolean windowScheduled = false;
+    private boolean sending = false;
+
+    public EWPECommandQueue(EWPEDevice device) {
+        this.device = device;
+    }
+
+    /**
+     * Queues the given parameters. The returned future completes with the result of the
+     * pack that carried them, or exceptionally once all tries timed out.
+     */
+    public CompletableFuture<EWPEExecResult> submit(Map<String, Integer> parameters) {
+        CompletableFuture<EWPEExecResult> future = new CompletableFuture<>();
+        boolean scheduleWindow;
+        synchronized (this) {
+            int added = 0;
+            for (String parameter : parameters.keySet()) {
+                if (!pending.containsKey(parameter)) {
+                    added++;
+                }
+            }
+            if (pending.size() + added > MAX_PENDING_PARAMETERS) {
+                future.completeExceptionally(new RejectedExecutionException(
+                        "Command queue of EWPESmart device " + device.getId() + " is full"));
+                return future;
+            }
+            pending.putAll(parameters);
+            waiting.add(future);
+            // while a pack is in flight its completion sends the next one
+            scheduleWindow = !sending && !windowScheduled;
+            windowScheduled |= scheduleWindow;
+        }
+        if (scheduleWindow) {
+            device.scheduleCommand(this::drain, device.getCommandWindow());
+        }
+        return future;
+    }
+
+    /**
+     * Fails everything that was not sent yet, e.g. when the device is detached.
+     */
+    public void clear(Throwable cause) {
+        List<CompletableFuture<EWPEExecResult>> failed;
+        synchronized (this) {
+            pending.clear();
+            failed = new ArrayList<>(waiting);
+            waiting.clear();
+            pendingAttempt = 1;
+        }
+        for (CompletableFuture<EWPEExecResult> future : failed) {
+            future.completeExceptionally(cause);
+        }
+    }
+
+    private void drain() {
+        Map<String, Integer> batch;
+        List<CompletableFuture<EWPEExecResult>> futures;
+        int attempt;
+        synchronized (this) {
+            windowScheduled = false;
+            if (sending || pending.isEmpty()) {
+                return;
+            }
+            sending = true;
+            batch = new LinkedHashMap<>(pending);
+            pending.clear();
+            futures = new ArrayList<>(waiting);
+            waiting.clear();
+            attempt = pendingAttempt;
+            pendingAttempt = 1;
+        }
+
+        logger.trace("EWPESmart: sending {} merged parameters to device {}, try no. {}", batch.size(),
+                device.getId(), attempt);
+        CompletableFuture<EWPEExecResult> result;
+        try {
+            result = device.execute(batch, attempt);
+        } catch (RuntimeException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        result.whenComplete((execResult, error) -> completed(batch, futures, attempt, execResult, error));
+    }
+
+    private void completed(Map<String, Integer> batch, List<CompletableFuture<EWPEExecResult>> futures,
+            int attempt, EWPEExecResult result, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause()
+                : error;
+        // a device the circuit breaker gave up on is not flooded with resent packs
+        boolean retry = cause instanceof SocketTimeoutException && attempt < SEND_MESSAGE_TRIES
+                && !device.getCircuitBreaker().isOpen();
+        synchronized (this) {
+            sending = false;
+            if (retry) {
+                // values submitted while the pack was in flight are newer
+                for (Map.Entry<String, Integer> parameter : batch.entrySet()) {
+                    pending.putIfAbsent(parameter.getKey(), parameter.getValue());
+                }
+                waiting.addAll(futures);
+                pendingAttempt = Math.max(pendingAttempt, attempt + 1);
+                // the backoff replaces the command window of anything submitted meanwhile
+                windowScheduled = true;
+            }
+        }
+
+        if (retry) {
+            long delay = EWPERoundTripEstimator.retryDelay(attempt);
+            logger.debug("EWPESmart: failed to send command to device {} due to Timeout, try no. {}, next in {} ms",
+                    device.getId(), attempt, delay);
+            device.scheduleCommand(this::drain, delay);
+            return;
+        }
+        for (CompletableFuture<EWPEExecResult> future : futures) {
+            if (cause != null) {
+                future.completeExceptionally(cause);
+            } else {
+                future.complete(result);
+            }
+        }
+        drain();
+    }
+}
@@ -12,36 +12,44 @@
  */
 package org.openhab.binding.ewpesmart.internal.device;
 
-import java.io.StringReader;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import static org.openhab.binding.ewpesmart.internal.EWPESmartBindingConstants.DEFAULT_COMMAND_WINDOW;
+
+import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.openhab.binding.ewpesmart.internal.encryption.Crypto;
-import org.openhab.binding.ewpesmart.internal.gson.EWPEBindRequest4Gson;
-import org.openhab.binding.ewpesmart.internal.gson.EWPEBindRequestPack4Gson;
+import org.openhab.binding.ewpesmart.internal.encryption.CryptoKey;
 import org.openhab.binding.ewpesmart.internal.gson.EWPEBindResponse4Gson;
 import org.openhab.binding.ewpesmart.internal.gson.EWPEBindResponsePack4Gson;
-import org.openhab.binding.ewpesmart.internal.gson.EWPEExecCommand4Gson;
-import org.openhab.binding.ewpesmart.internal.gson.EWPEExecResponse4Gson;
-import org.openhab.binding.ewpesmart.internal.gson.EWPEExecResponsePack4Gson;
-import org.openhab.binding.ewpesmart.internal.gson.EWPEExecuteCommandPack4Gson;
-import org.openhab.binding.ewpesmart.internal.gson.EWPEReqStatus4Gson;
-import org.openhab.binding.ewpesmart.internal.gson.EWPEReqStatusPack4Gson;
+import org.openhab.binding.ewpesmart.internal.gson.EWPEMessageCodec;
+import org.openhab.binding.ewpesmart.internal.gson.EWPEPack;
 import org.openhab.binding.ewpesmart.internal.gson.EWPEScanResponse4Gson;
-import org.openhab.binding.ewpesmart.internal.gson.EWPEStatusResponse4Gson;
-import org.openhab.binding.ewpesmart.internal.gson.EWPEStatusResponsePack4Gson;
+import org.openhab.binding.ewpesmart.internal.network.EWPETransport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.gson.Gson;
-import com.google.gson.stream.JsonReader;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 
 /**
  * The EWPEDevice object repesents a EWPE Airconditioner and provides
@@ -50,20 +58,84 @@ import com.google.gson.stream.JsonReader;
  * @author John Cunha - Initial contribution
  */
 
-public class EWPEDevice {
+public class EWPEDevice implements EWPETransport.Listener {
+
+    /**
+     * Encoded status request together with the inputs it was built from.
+     */
+    private static class StatusRequest {
+        final String key;
+        final String[] columns;
+        final byte[] datagram;
+
+        StatusRequest(String key, String[] columns, byte[] datagram) {
+            this.key = key;
+            this.columns = columns;
+            this.datagram = datagram;
+        }
+    }
+
+    /**
+     * Request waiting for its response, with what is needed to tell a stale response apart.
+     */
+    private static class PendingRequest {
+        final CompletableFuture<Object> future;
+        final long commandEpoch;
+        final String[] options;
+        final boolean resent;
+        final long sentAt = System.nanoTime();
+
+        PendingRequest(CompletableFuture<Object> future, long commandEpoch, String[] options, boolean resent) {
+            this.future = future;
+            this.commandEpoch = commandEpoch;
+            this.options = options;
+            this.resent = resent;
+        }
+
+        boolean hasOptions(String[] responseOptions) {
+            if (options == null) {
+                return true;
+            }
+            if (options.length != responseOptions.length) {
+                return false;
+            }
+            return new HashSet<>(Arrays.asList(options)).containsAll(Arrays.asList(responseOptions));
+        }
+    }
+
     private final static Integer ROOM_TEMP_OFFSET = 40;
     private final static Charset UTF8_CHARSET = Charset.forName("UTF-8");
+    private final static JsonParser JSON_PARSER = new JsonParser();
+    private final static String RESPONSE_BIND = "bindok";
+    private final static String RESPONSE_STATUS = "dat";
+    private final static String RESPONSE_COMMAND = "res";
+    private final static CryptoKey GENERAL_KEY = CryptoKey.general();
+    private final static String[] STATUS_COLUMNS = EWPEStatusColumn.columnNames();
     private final static HashMap<String, HashMap<String,Integer>> tempRanges = createTempRangeMap();
     private Boolean mIsBound = false;
     private InetAddress mAddress;
     private InetAddress mBroadcast;
     private int mPort = 0;
     private String mKey;
+    private volatile CryptoKey mCryptoKey = null;
     private EWPEScanResponse4Gson mScanResponseGson = null;
     private EWPEBindResponse4Gson bindResponseGson = null;
-    private EWPEStatusResponse4Gson statusResponseGson = null;
     private final Logger logger = LoggerFactory.getLogger(EWPEDevice.class);
-    private HashMap<String, Integer> parametersState = new HashMap<>();
+    private final Object statusLock = new Object();
+    private EWPEStatusSnapshot publishedStatus = null;
+    private final Map<String, Deque<PendingRequest>> pendingRequests = new HashMap<>();
+    // Until when the response to a timed out request may still arrive, by response type,
+    // guarded by pendingRequests
+    private final Map<String, Deque<Long>> lateResponses = new HashMap<>();
+    private final AtomicLong commandEpoch = new AtomicLong();
+    private final EWPERoundTripEstimator roundTrip = new EWPERoundTripEstimator();
+    private final EWPECircuitBreaker circuitBreaker = new EWPECircuitBreaker();
+    private volatile EWPETransport transport = null;
+    private final EWPECommandQueue commandQueue = new EWPECommandQueue(this);
+    private long commandWindow = DEFAULT_COMMAND_WINDOW;
+    private volatile StatusRequest statusRequest = null;
+    private volatile byte[] lastStatusDatagram = null;
+    private volatile EWPEStatusSnapshot lastStatus = null;
 
     public Boolean getIsBound() {
         return mIsBound;
@@ -97,10 +169,52 @@ public class EWPEDevice {
         this.mPort = port;
     }
 
+    public InetSocketAddress getSocketAddress() {
+        return new InetSocketAddress(mAddress, mPort);
+    }
+
+    public long getCommandWindow() {
+        return commandWindow;
+    }
+
+    /**
+     * Sets the time in milliseconds during which commands are merged into a single "cmd" pack.
+     */
+    public void setCommandWindow(long commandWindow) {
+        this.commandWindow = Math.max(commandWindow, 0);
+    }
+
+    public EWPERoundTripEstimator getRoundTripEstimator() {
+        return roundTrip;
+    }
+
+    public EWPECircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
     public String getKey() {
         return mKey;
     }
 
+    /**
+     * Uses a key from an earlier bind, e.g. one restored from the {@link EWPEDeviceCache}.
+     * The device is not marked as bound, as the key may have changed since.
+     */
+    public void setKey(String key) {
+        mKey = key;
+        mCryptoKey = key == null ? null : CryptoKey.forKey(key);
+        statusRequest = null;
+        lastStatusDatagram = null;
+    }
+
+    private CryptoKey getCryptoKey() throws IOException {
+        CryptoKey cryptoKey = mCryptoKey;
+        if (cryptoKey == null) {
+            throw new IOException("EWPESmart device " + getId() + " is not bound");
+        }
+        return cryptoKey;
+    }
+
     public String getName() {
         return mScanResponseGson.packJson.name;
     }
@@ -121,113 +235,526 @@ public class EWPEDevice {
         return bindResponseGson;
     }
 
-    public EWPEStatusResponse4Gson getEWPEStatusResponse4Gson() {
-        return statusResponseGson;
+    /**
+     * Routes datagrams sent by this device on the shared transport to this device.
+     */
+    public void attach(EWPETransport transport) {
+        detach();
+        this.transport = transport;
+        transport.register(getSocketAddress(), this);
     }
 
-    public void BindWithDevice(DatagramSocket clientSocket) throws Exception {
-        byte[] sendData = new byte[1024];
-        byte[] receiveData = new byte[347];
-        Gson gson = new Gson();
+    public void detach() {
+        if (transport != null) {
+            transport.unregister(getSocketAddress(), this);
+            transport = null;
+        }
+        IOException cause = new IOException("EWPESmart device " + getId() + " was detached");
+        commandQueue.clear(cause);
+        failPendingRequests(cause);
+    }
 
-        // Prep the Binding Request pack
-        EWPEBindRequestPack4Gson bindReqPackGson = new EWPEBindRequestPack4Gson();
-        bindReqPackGson.mac = getId();
-        bindReqPackGson.t = "bind";
-        bindReqPackGson.uid = 0;
-        String bindReqPackStr = gson.toJson(bindReqPackGson);
+    /**
+     * Requests the bind key from the device. The returned future completes once the
+     * device answered with "bindok", or exceptionally on timeout.
+     */
+    public CompletableFuture<Void> bind() {
+        // Prep and encrypt the Binding Request pack
+        byte[] encryptedBindReqPacket = Crypto.encryptPack(GENERAL_KEY, EWPEMessageCodec.encodeBindPack(getId()));
+        if (encryptedBindReqPacket == null) {
+            return failedFuture(new IOException("Failed to encrypt bind request for EWPESmart device " + getId()));
+        }
 
-        // Now Encrypt the Binding Request pack
-        String encryptedBindReqPacket = Crypto.encryptPack(Crypto.GetAESGeneralKeyByteArray(), bindReqPackStr);
+        // Now Send the request
+        return sendRequest(RESPONSE_BIND, null, false,
+                EWPEMessageCodec.encodeRequest(getId(), 1, encryptedBindReqPacket));
+    }
 
-        // Prep the Binding Request
-        EWPEBindRequest4Gson bindReqGson = new EWPEBindRequest4Gson();
-        bindReqGson.cid = "app";
-        bindReqGson.tcid = getId();
-        bindReqGson.i = 1;
-        bindReqGson.t = "pack";
-        bindReqGson.uid = 0;
-        bindReqGson.pack = new String(encryptedBindReqPacket.getBytes(), UTF8_CHARSET);
-        String bindReqStr = gson.toJson(bindReqGson);
-        sendData = bindReqStr.getBytes();
+    /**
+     * Requests the current status of all {@link #STATUS_COLUMNS} from the device.
+     */
+    public CompletableFuture<EWPEStatusSnapshot> requestStatus() {
+        byte[] request;
+        try {
+            request = getStatusRequest();
+        } catch (Exception e) {
+            return failedFuture(e);
+        }
 
-        // Now Send the request
-        DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, getAddress(), getPort());
-        clientSocket.send(sendPacket);
+        logger.trace("EWPESmart: Sending Status request packet to device");
+        return sendRequest(RESPONSE_STATUS, null, false, request);
+    }
+
+    /**
+     * Returns the encoded status request datagram. It only depends on the MAC, the
+     * device key and the requested columns, so it is built once and reused by every
+     * poll until the key or the column set changes.
+     */
+    private byte[] getStatusRequest() throws Exception {
+        String key = getKey();
+        String[] columns = STATUS_COLUMNS;
+        StatusRequest cached = statusRequest;
+        if (cached != null && cached.key.equals(key) && cached.columns == columns) {
+            return cached.datagram;
+        }
+
+        // Prep and encrypt the Status Request pack
+        byte[] encryptedStatusReqPacket = Crypto.encryptPack(getCryptoKey(),
+                EWPEMessageCodec.encodeStatusPack(getId(), columns));
+        if (encryptedStatusReqPacket == null) {
+            throw new IOException("Failed to encrypt status request for EWPESmart device " + getId());
+        }
+        byte[] datagram = EWPEMessageCodec.encodeRequest(getId(), 0, encryptedStatusReqPacket);
+
+        statusRequest = new StatusRequest(key, columns, datagram);
+        return datagram;
+    }
+
+    /**
+     * Queues the given parameters for the next "cmd" pack. All parameters submitted
+     * within the command window are merged, the latest value per parameter winning,
+     * and sent together. The returned future completes with the result of that pack.
+     *
+     * @see EWPECommandQueue
+     */
+    public CompletableFuture<EWPEExecResult> submitCommand(Map<String, Integer> parameters) {
+        return commandQueue.submit(parameters);
+    }
+
+    /**
+     * Runs a task of the command queue after the given delay in milliseconds.
+     */
+    void scheduleCommand(Runnable task, long delay) {
+        EWPETransport currentTransport = transport;
+        if (delay == 0 || currentTransport == null) {
+            task.run();
+        } else {
+            currentTransport.schedule(task, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Sends the given parameters in a single "cmd" pack.
+     */
+    public CompletableFuture<EWPEExecResult> execute(Map<String, Integer> parameters) {
+        return execute(parameters, 1);
+    }
+
+    /**
+     * Sends the given parameters in a single "cmd" pack.
+     *
+     * @param attempt how often the parameters have been sent, including this time
+     */
+    CompletableFuture<EWPEExecResult> execute(Map<String, Integer> parameters, int attempt) {
+        // update state now to reflect the UI status,
+        // if command fails it will get changed with next refresh
+        synchronized (statusLock) {
+            if (publishedStatus != null) {
+                for (Map.Entry<String, Integer> parameter : parameters.entrySet()) {
+                    EWPEStatusColumn column = EWPEStatusColumn.fromColumnName(parameter.getKey());
+                    if (column != null && parameter.getValue() != null) {
+                        publishedStatus = publishedStatus.with(column, parameter.getValue().intValue());
+                    }
+                }
+            }
+        }
+        // the next status has to be decoded to correct the UI in case the command fails
+        lastStatusDatagram = null;
 
-        // Recieve a response
-        DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
-        clientSocket.receive(receivePacket);
-        String modifiedSentence = new String(receivePacket.getData());
+        logger.trace("Execute command");
 
-        // Read the response
-        StringReader stringReader = new StringReader(modifiedSentence);
-        bindResponseGson = gson.fromJson(new JsonReader(stringReader), EWPEBindResponse4Gson.class);
-        bindResponseGson.decryptedPack = Crypto.decryptPack(Crypto.GetAESGeneralKeyByteArray(),
-                bindResponseGson.pack);
+        // Convert the parameter map values to arrays
+        String[] keyArray = new String[parameters.size()];
+        int[] valueArray = new int[parameters.size()];
+        int index = 0;
+        for (Map.Entry<String, Integer> parameter : parameters.entrySet()) {
+            keyArray[index] = parameter.getKey();
+            valueArray[index++] = parameter.getValue().intValue();
+        }
 
-        // Create the JSON to hold the response values
-        stringReader = new StringReader(bindResponseGson.decryptedPack);
-        bindResponseGson.packJson = gson.fromJson(new JsonReader(stringReader), EWPEBindResponsePack4Gson.class);
+        // Prep and encrypt the Command Request pack
+        byte[] encryptedCommandReqPacket;
+        try {
+            encryptedCommandReqPacket = Crypto.encryptPack(getCryptoKey(),
+                    EWPEMessageCodec.encodeCommandPack(keyArray, valueArray));
+        } catch (IOException e) {
+            return failedFuture(e);
+        }
+        if (encryptedCommandReqPacket == null) {
+            return failedFuture(new IOException("Failed to encrypt command for EWPESmart device " + getId()));
+        }
+
+        // status requested before this command may be answered with the previous state
+        commandEpoch.incrementAndGet();
+        return sendRequest(RESPONSE_COMMAND, keyArray, attempt > 1,
+                EWPEMessageCodec.encodeRequest(null, 0, encryptedCommandReqPacket));
+    }
+
+    /**
+     * Sends a request and registers it as pending until a response of the given
+     * type arrives or the request times out.
+     *
+     * The timeout adapts to the round trip times measured for this device.
+     *
+     * @param options the parameters of a "cmd" pack, which the response has to echo
+     * @param resent whether the request repeats one that timed out
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> sendRequest(String responseType, String[] options, boolean resent,
+            byte[] request) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        EWPETransport currentTransport = transport;
+        if (currentTransport == null) {
+            future.completeExceptionally(
+                    new IOException("EWPESmart device " + getId() + " is not attached to a transport"));
+            return future;
+        }
+
+        PendingRequest pendingRequest = new PendingRequest((CompletableFuture<Object>) future, commandEpoch.get(),
+                options, resent);
+        synchronized (pendingRequests) {
+            pendingRequests.computeIfAbsent(responseType, type -> new ArrayDeque<>()).add(pendingRequest);
+        }
+        long timeoutMillis = roundTrip.getTimeout();
+        ScheduledFuture<?> timeout = currentTransport.schedule(() -> {
+            if (removePendingRequest(responseType, pendingRequest)) {
+                // its response would be taken for the answer to the next request of the type
+                synchronized (pendingRequests) {
+                    lateResponses.computeIfAbsent(responseType, type -> new ArrayDeque<>())
+                            .add(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+                }
+                roundTrip.timedOut();
+                if (circuitBreaker.timedOut()) {
+                    logger.info("EWPESmart: device {} stopped answering, probing it from now on", getId());
+                }
+                future.completeExceptionally(new SocketTimeoutException(
+                        "No " + responseType + " response from EWPESmart device " + getId()));
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        future.whenComplete((result, error) -> timeout.cancel(false));
+
+        try {
+            currentTransport.send(getSocketAddress(), request);
+        } catch (IOException e) {
+            removePendingRequest(responseType, pendingRequest);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private boolean removePendingRequest(String responseType, PendingRequest request) {
+        synchronized (pendingRequests) {
+            Deque<PendingRequest> pending = pendingRequests.get(responseType);
+            return pending != null && pending.remove(request);
+        }
+    }
+
+    /**
+     * Takes the request the given response answers. A "res" answers the oldest command with
+     * the same parameters, a "bindok" has to carry the MAC of this device, anything else
+     * answers the oldest request of its type. Returns null if the response is stale, i.e.
+     * no request is waiting for it any more.
+     *
+     * After a request timed out, the first response of its type that arrives within one
+     * more timeout is taken for the late response to it and dropped as well.
+     */
+    private PendingRequest takePendingRequest(String responseType, EWPEPack pack) {
+        if (pack != null && RESPONSE_BIND.equals(responseType) && pack.mac != null && !pack.mac.equals(getId())) {
+            return null;
+        }
+        synchronized (pendingRequests) {
+            if (isLateResponse(responseType)) {
+                return null;
+            }
+            Deque<PendingRequest> pending = pendingRequests.get(responseType);
+            if (pending == null) {
+                return null;
+            }
+            if (pack == null || pack.opt == null || !RESPONSE_COMMAND.equals(responseType)) {
+                return pending.poll();
+            }
+            Iterator<PendingRequest> iterator = pending.iterator();
+            while (iterator.hasNext()) {
+                PendingRequest request = iterator.next();
+                if (request.hasOptions(pack.opt)) {
+                    iterator.remove();
+                    return request;
+                }
+            }
+            return null;
+        }
+    }
+
+    private boolean isLateResponse(String responseType) {
+        Deque<Long> deadlines = lateResponses.get(responseType);
+        long now = System.nanoTime();
+        while (deadlines != null && !deadlines.isEmpty()) {
+            if (deadlines.poll() - now > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void requestAnswered(PendingRequest request) {
+        // Karn's algorithm: the response to a resent request may answer an earlier send
+        if (!request.resent) {
+            roundTrip.sample(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - request.sentAt));
+        }
+        if (circuitBreaker.succeeded()) {
+            logger.info("EWPESmart: device {} is answering again", getId());
+        }
+    }
+
+    private void failPendingRequests(Exception cause) {
+        List<PendingRequest> failed = new ArrayList<>();
+        synchronized (pendingRequests) {
+            for (Deque<PendingRequest> pending : pendingRequests.values()) {
+                failed.addAll(pending);
+                pending.clear();
+            }
+            lateResponses.clear();
+        }
+        for (PendingRequest request : failed) {
+            request.future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Correlates a datagram from this device with the oldest pending request that
+     * expects a response of the same type ("bindok", "dat" or "res").
+     */
+    @Override
+    public void datagramReceived(InetSocketAddress source, byte[] data, int offset, int length) {
+        // With AES/ECB and a fixed key an unchanged device state gives the same datagram,
+        // so the previous snapshot can be reused without decoding anything
+        byte[] previousStatus = lastStatusDatagram;
+        if (previousStatus != null && regionEquals(previousStatus, data, offset, length)) {
+            PendingRequest request = takePendingRequest(RESPONSE_STATUS, null);
+            if (request != null) {
+                requestAnswered(request);
+                logger.trace("EWPESmart: status of device {} is unchanged", getId());
+                request.future.complete(lastStatus);
+            } else {
+                logger.debug("EWPESmart: dropping unexpected {} response from device {}", RESPONSE_STATUS, getId());
+            }
+            return;
+        }
+
+        try {
+            ByteBuffer plainText = decryptResponsePack(data, offset, length);
+            if (plainText == null) {
+                logger.debug("EWPESmart: could not decrypt response from device {}", getId());
+                return;
+            }
+            byte[] packData = plainText.array();
+            int packOffset = plainText.arrayOffset() + plainText.position();
+            if (logger.isTraceEnabled()) {
+                logger.trace("EWPESmart: Response from device {}: {}", getId(),
+                        new String(packData, packOffset, plainText.remaining(), UTF8_CHARSET));
+            }
+            EWPEPack pack = EWPEMessageCodec.decodePack(packData, packOffset, plainText.remaining(), STATUS_COLUMNS);
+            String responseType = pack.t == null ? "" : pack.t;
+
+            PendingRequest request = takePendingRequest(responseType, pack);
+            if (request == null) {
+                logger.debug("EWPESmart: dropping stale or unexpected {} response from device {}", responseType,
+                        getId());
+                return;
+            }
+            requestAnswered(request);
+
+            switch (responseType) {
+                case RESPONSE_BIND:
+                    handleBindResponse(pack);
+                    request.future.complete(null);
+                    break;
+                case RESPONSE_STATUS:
+                    EWPEStatusSnapshot previous = lastStatus;
+                    if (request.commandEpoch != commandEpoch.get() && previous != null) {
+                        // requested before a command was sent, so it may not reflect the command yet
+                        logger.debug("EWPESmart: dropping status of device {} that predates a command", getId());
+                        request.future.complete(previous);
+                    } else {
+                        request.future.complete(handleStatusResponse(data, offset, length, pack));
+                    }
+                    break;
+                default:
+                    request.future.complete(handleExecResponse(pack));
+                    break;
+            }
+        } catch (JsonParseException | IllegalStateException e) {
+            logger.debug("EWPESmart: failed to parse response from device {} due to {}", getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Decrypts the pack of the given datagram straight from its bytes, see
+     * {@link Crypto#decryptPack(CryptoKey, byte[], int, int)}.
+     */
+    private ByteBuffer decryptResponsePack(byte[] data, int offset, int length) {
+        byte[] pack = data;
+        int packStart = EWPEMessageCodec.indexOfPackValue(data, offset, offset + length);
+        int packEnd = packStart < 0 ? -1 : EWPEMessageCodec.indexOfPackValueEnd(data, packStart, offset + length);
+        if (packEnd < 0) {
+            // the pack could not be located in the raw datagram, so parse the envelope
+            JsonElement packElement = JSON_PARSER.parse(new String(data, offset, length, UTF8_CHARSET))
+                    .getAsJsonObject().get("pack");
+            if (packElement == null) {
+                logger.trace("EWPESmart: ignoring response without pack from device {}", getId());
+                return null;
+            }
+            pack = packElement.getAsString().getBytes(UTF8_CHARSET);
+            packStart = 0;
+            packEnd = pack.length;
+        }
+
+        // Bind responses are encrypted with the general key, everything else with the device key
+        ByteBuffer plainText = null;
+        CryptoKey cryptoKey = mCryptoKey;
+        if (cryptoKey != null) {
+            plainText = Crypto.decryptPack(cryptoKey, pack, packStart, packEnd - packStart);
+        }
+        if (plainText == null) {
+            plainText = Crypto.decryptPack(GENERAL_KEY, pack, packStart, packEnd - packStart);
+        }
+        return plainText;
+    }
+
+    private static boolean regionEquals(byte[] expected, byte[] data, int offset, int length) {
+        if (expected.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (expected[i] != data[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void handleBindResponse(EWPEPack pack) {
+        EWPEBindResponse4Gson response = new EWPEBindResponse4Gson();
+        response.t = "pack";
+        response.packJson = new EWPEBindResponsePack4Gson();
+        response.packJson.t = pack.t;
+        response.packJson.mac = pack.mac;
+        response.packJson.key = pack.key;
+        response.packJson.r = pack.r;
+        bindResponseGson = response;
 
         // Now set the key and flag to indicate the bind was succesful
-        mKey = bindResponseGson.packJson.key;
+        mKey = pack.key;
+        mCryptoKey = mKey == null ? null : CryptoKey.forKey(mKey);
+        statusRequest = null;
+        lastStatusDatagram = null;
 
         logger.debug("Key received: {}", mKey);
 
         setIsBound(Boolean.TRUE);
     }
 
-    public void SetDevicePower(DatagramSocket clientSocket, Integer value) throws Exception {
+    private EWPEStatusSnapshot handleStatusResponse(byte[] data, int offset, int length, EWPEPack pack) {
+        EWPEStatusSnapshot snapshot = UpdateTempFtoC(EWPEStatusSnapshot.fromResponse(pack.cols, pack.dat,
+                pack.datNulls));
+        // Diff once against what was handed out before, including values set by commands
+        synchronized (statusLock) {
+            long changed = snapshot.diff(publishedStatus);
+            if ((changed & EWPEStatusColumn.TEM_UN.getMask()) != 0) {
+                // the room temperature is converted using the unit
+                changed |= EWPEStatusColumn.TEM_SEN.getMask();
+            }
+            snapshot = snapshot.withChangedMask(changed);
+            publishedStatus = snapshot;
+        }
+        lastStatus = snapshot;
+        // the receive buffer is reused, so keep a copy to compare the next response with
+        lastStatusDatagram = Arrays.copyOfRange(data, offset, offset + length);
+        return snapshot;
+    }
+
+    private EWPEExecResult handleExecResponse(EWPEPack pack) {
+        // Depending on firmware the applied values are reported in "val" or in "p"
+        return pack.val != null ? new EWPEExecResult(pack.r, pack.opt, pack.val, pack.valNulls)
+                : new EWPEExecResult(pack.r, pack.opt, pack.p, pack.pNulls);
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable cause) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(cause);
+        return future;
+    }
+
+    /**
+     * Waits for the given request, unwrapping the exception it failed with so callers
+     * can still tell a {@link SocketTimeoutException} apart.
+     */
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    public void BindWithDevice() throws Exception {
+        await(bind());
+    }
+
+    public CompletableFuture<EWPEExecResult> SetDevicePower(Integer value) {
         // Only allow this to happen if this device has been bound and values are valid
         if ((!Objects.equals(getIsBound(), Boolean.TRUE)) || (value.intValue() < 0 || value.intValue() > 1)) {
-            return;
+            return ignoredCommand();
         }
 
         // Set the values in the HashMap
         HashMap<String, Integer> parameters = new HashMap<>();
         parameters.put("Pow", value);
-        ExecuteCommand(clientSocket, parameters);
+        return ExecuteCommand(parameters);
     }
 
     public Integer GetDevicePower() {
         return GetIntStatusVal("Pow");
     }
 
-    public void SetDeviceMode(DatagramSocket clientSocket, Integer value) throws Exception {
+    public CompletableFuture<EWPEExecResult> SetDeviceMode(Integer value) {
         // Only allow this to happen if this device has been bound and values are valid
         if ((!Objects.equals(getIsBound(), Boolean.TRUE)) || (value.intValue() < 0 || value.intValue() > 4)) {
-            return;
+            return ignoredCommand();
         }
 
         // Set the values in the HashMap
         HashMap<String, Integer> parameters = new HashMap<>();
         parameters.put("Mod", value);
-        ExecuteCommand(clientSocket, parameters);
+        return ExecuteCommand(parameters);
     }
 
     public Integer GetDeviceMode() {
         return GetIntStatusVal("Mod");
     }
 
-    public void SetDeviceSwingVertical(DatagramSocket clientSocket, Integer value) throws Exception {
+    public CompletableFuture<EWPEExecResult> SetDeviceSwingVertical(Integer value) {
         // Only allow this to happen if this device has been bound and values are valid
         // Only values 0,1,2,3,4,5,6,10,11 allowed
         if ((!Objects.equals(getIsBound(), Boolean.TRUE)) || (value.intValue() < 0 || value.intValue() > 11)
                 || (value.intValue() > 6 && value.intValue() < 10)) {
-            return;
+            return ignoredCommand();
         }
         // Set the values in the HashMap
         HashMap<String, Integer> parameters = new HashMap<>();
         parameters.put("SwUpDn", value);
-        ExecuteCommand(clientSocket, parameters);
+        return ExecuteCommand(parameters);
     }
 
     public Integer GetDeviceSwingVertical() {
         return GetIntStatusVal("SwUpDn");
     }
 
-    public void SetDeviceWindspeed(DatagramSocket clientSocket, Integer value) throws Exception {
+    public CompletableFuture<EWPEExecResult> SetDeviceWindspeed(Integer value) {
         // Only allow this to happen if this device has been bound and values are valid
         /*
          * Possible values are :
@@ -239,7 +766,7 @@ public class EWPEDevice {
          * 5 : High
          */
         if ((!Objects.equals(getIsBound(), Boolean.TRUE)) || (value.intValue() < 0 || value.intValue() > 5)) {
-            return;
+            return ignoredCommand();
         }
 
         // Set the values in the HashMap
@@ -248,39 +775,39 @@ public class EWPEDevice {
         parameters.put("Quiet", 0);
         parameters.put("Tur", 0);
         parameters.put("NoiseSet", 0);
-        ExecuteCommand(clientSocket, parameters);
+        return ExecuteCommand(parameters);
     }
 
     public Integer GetDeviceWindspeed() {
         return GetIntStatusVal("WdSpd");
     }
 
-    public void SetDeviceTurbo(DatagramSocket clientSocket, Integer value) throws Exception {
+    public CompletableFuture<EWPEExecResult> SetDeviceTurbo(Integer value) {
         // Only allow this to happen if this device has been bound and values are valid
         if ((!Objects.equals(getIsBound(), Boolean.TRUE)) || (value.intValue() < 0 || value.intValue() > 1)) {
-            return;
+            return ignoredCommand();
         }
 
         // Set the values in the HashMap
         HashMap<String, Integer> parameters = new HashMap<>();
         parameters.put("Tur", value);
-        ExecuteCommand(clientSocket, parameters);
+        return ExecuteCommand(parameters);
     }
 
     public Integer GetDeviceTurbo() {
         return GetIntStatusVal("Tur");
     }
 
-    public void SetDeviceLight(DatagramSocket clientSocket, Integer value) throws Exception {
+    public CompletableFuture<EWPEExecResult> SetDeviceLight(Integer value) {
         // Only allow this to happen if this device has been bound and values are valid
         if ((!Objects.equals(getIsBound(), Boolean.TRUE)) || (value.intValue() < 0 || value.intValue() > 1)) {
-            return;
+            return ignoredCommand();
         }
 
         // Set the values in the HashMap
         HashMap<String, Integer> parameters = new HashMap<>();
         parameters.put("Lig", value);
-        ExecuteCommand(clientSocket, parameters);
+        return ExecuteCommand(parameters);
     }
 
     public Integer GetDeviceLight() {
@@ -349,11 +876,11 @@ public class EWPEDevice {
 
         return new Integer[]{newVal,CorF};
     }
-    public void SetDeviceTempSet(DatagramSocket clientSocket, Integer value) throws Exception {
+    public CompletableFuture<EWPEExecResult> SetDeviceTempSet(Integer value) {
         // **value** :  set temperature in degrees celsius or Fahrenheit
         // Only allow this to happen if this device has been bound
         if (getIsBound() != Boolean.TRUE) {
-            return;
+            return ignoredCommand();
         }
         Integer [] retList;
         Integer newVal = Integer.valueOf(value);
@@ -391,7 +918,7 @@ public class EWPEDevice {
         parameters.put("SetTem",outVal);
         parameters.put("TemRec",halfStep);
 
-        ExecuteCommand(clientSocket, parameters);
+        return ExecuteCommand(parameters);
     }
 
     public Integer GetDeviceTempSet() {
@@ -399,74 +926,92 @@ public class EWPEDevice {
     }
 
     public Integer GetDeviceTempSen() {
+        EWPEStatusSnapshot status = lastStatus;
+        return status == null ? null : getRoomTemperature(status);
+    }
+
+    /**
+     * Returns the room temperature reported in the given status in the unit set on
+     * the device, or null if the device did not report it.
+     */
+    public static Integer getRoomTemperature(EWPEStatusSnapshot status) {
+        if (!status.isPresent(EWPEStatusColumn.TEM_SEN)) {
+            return null;
+        }
         // TemSen has 40 offset to avoid having negative values
-        Integer curVal = GetIntStatusVal("TemSen") - ROOM_TEMP_OFFSET;
-        Integer outVal = curVal;
-        Integer CorF = GetIntStatusVal("TemUn");
-        if (CorF == 1) { // If Fahrenheit,
+        int curVal = status.get(EWPEStatusColumn.TEM_SEN) - ROOM_TEMP_OFFSET;
+        int outVal = curVal;
+        if (status.get(EWPEStatusColumn.TEM_UN) == 1) { // If Fahrenheit,
             // value argument is degrees F, convert Celsius to Fahrenheit,
             // TemSen output from A/C is always in Celsius despite passing in 1
             // to TemUn
-            outVal = Integer.valueOf((int)Math.round((curVal * 1.8) + 32.)); // Integer Truncated
+            outVal = (int) Math.round((curVal * 1.8) + 32.); // Integer Truncated
         }
-        return outVal;
+        return Integer.valueOf(outVal);
+    }
+
+    /**
+     * Returns the last status received from the device, or null if there is none yet.
+     */
+    public EWPEStatusSnapshot getStatus() {
+        return lastStatus;
     }
 
-    public void SetDeviceAir(DatagramSocket clientSocket, Integer value) throws Exception {
+    public CompletableFuture<EWPEExecResult> SetDeviceAir(Integer value) {
         // Only allow this to happen if this device has been bound
         if (getIsBound() != Boolean.TRUE) {
-            return;
+            return ignoredCommand();
         }
 
         // Set the values in the HashMap
         HashMap<String, Integer> parameters = new HashMap<>();
         parameters.put("Air", value);
 
-        ExecuteCommand(clientSocket, parameters);
+        return ExecuteCommand(parameters);
     }
 
     public Integer GetDeviceAir() {
         return GetIntStatusVal("Air");
     }
 
-    public void SetDeviceDry(DatagramSocket clientSocket, Integer value) throws Exception {
+    public CompletableFuture<EWPEExecResult> SetDeviceDry(Integer value) {
         // Only allow this to happen if this device has been bound
         if (getIsBound() != Boolean.TRUE) {
-            return;
+            return ignoredCommand();
         }
 
         // Set the values in the HashMap
         HashMap<String, Integer> parameters = new HashMap<>();
         parameters.put("Blo", value);
 
-        ExecuteCommand(clientSocket, parameters);
+        return ExecuteCommand(parameters);
     }
 
     public Integer GetDeviceDry() {
         return GetIntStatusVal("Blo");
     }
 
-    public void SetDeviceHealth(DatagramSocket clientSocket, Integer value) throws Exception {
+    public CompletableFuture<EWPEExecResult> SetDeviceHealth(Integer value) {
         // Only allow this to happen if this device has been bound
         if (getIsBound() != Boolean.TRUE) {
-            return;
+            return ignoredCommand();
         }
 
         // Set the values in the HashMap
         HashMap<String, Integer> parameters = new HashMap<>();
         parameters.put("Health", value);
 
-        ExecuteCommand(clientSocket, parameters);
+        return ExecuteCommand(parameters);
     }
 
     public Integer GetDeviceHealth() {
         return GetIntStatusVal("Health");
     }
 
-    public void SetDevicePwrSaving(DatagramSocket clientSocket, Integer value) throws Exception {
+    public CompletableFuture<EWPEExecResult> SetDevicePwrSaving(Integer value) {
         // Only allow this to happen if this device has been bound
         if (getIsBound() != Boolean.TRUE) {
-            return;
+            return ignoredCommand();
         }
 
         // Set the values in the HashMap
@@ -478,13 +1023,43 @@ public class EWPEDevice {
         parameters.put("SwhSlp", Integer.valueOf(0));
         parameters.put("SlpMod", Integer.valueOf(0));
 
-        ExecuteCommand(clientSocket, parameters);
+        return ExecuteCommand(parameters);
     }
 
     public Integer GetDevicePwrSaving() {
         return GetIntStatusVal("SvSt");
     }
 
+    /**
+     * Sets the given column, validating the value against the column registry. Columns
+     * that have to be sent together with others go through their dedicated setters.
+     */
+    public CompletableFuture<EWPEExecResult> SetStatusColumn(EWPEStatusColumn column, Integer value) {
+        switch (column) {
+            case SET_TEM:
+                return SetDeviceTempSet(value);
+            case WD_SPD:
+                return SetDeviceWindspeed(value);
+            case SW_UP_DN:
+                return SetDeviceSwingVertical(value);
+            case SV_ST:
+                return SetDevicePwrSaving(value);
+            default:
+                break;
+        }
+
+        // Only allow this to happen if this device has been bound and values are valid
+        if ((!Objects.equals(getIsBound(), Boolean.TRUE)) || !column.isValidValue(value.intValue())) {
+            logger.debug("EWPESmart: ignoring invalid value {} for {}", value, column.getColumnName());
+            return ignoredCommand();
+        }
+
+        // Set the values in the HashMap
+        HashMap<String, Integer> parameters = new HashMap<>();
+        parameters.put(column.getColumnName(), value);
+        return ExecuteCommand(parameters);
+    }
+
     public Integer GetIntStatusVal(String valueName) {
         /*
          * Note : Values can be:
@@ -510,214 +1085,49 @@ public class EWPEDevice {
          * "SvSt": Power Saving
          */
         // Find the valueName in the Returned Status object
-        if (statusResponseGson == null) {
-          return null;
-        }
-        String columns[] = statusResponseGson.packJson.cols;
-        Integer values[] = statusResponseGson.packJson.dat;
-        List<String> colList = new ArrayList<>(Arrays.asList(columns));
-        List<Integer> valList = new ArrayList<>(Arrays.asList(values));
-        int valueArrayposition = colList.indexOf(valueName);
-        if (valueArrayposition == -1) {
+        EWPEStatusColumn column = EWPEStatusColumn.fromColumnName(valueName);
+        EWPEStatusSnapshot status = lastStatus;
+        if (column == null || status == null || !status.isPresent(column)) {
             return null;
         }
-
-        // Now get the Corresponding value
-        Integer value = valList.get(valueArrayposition);
-        return value;
+        return Integer.valueOf(status.get(column));
     }
 
-    /**
-     * Returns Itteger value for state if it changed since the last time this
-     * command was run for given state.
-     */
-    public Integer GetIntStatusValIfChanged(String valueName) {
-        // Find the valueName in the Current Status object
-        Integer currvalue = GetIntStatusVal(valueName);
-        Integer prevvalue = parametersState.get(valueName);
-
-        //assign curr value to state
-        parametersState.put(valueName, currvalue);
-        if (currvalue == null) {
-            return null;
-        }
-        if (prevvalue == null || currvalue.intValue() != prevvalue.intValue()) {
-            logger.trace("EWPESmart: {} value has changed!", valueName);
-            return currvalue;
-        } else {
-            return null;
-        }
+    protected CompletableFuture<EWPEExecResult> ExecuteCommand(HashMap<String, Integer> parameters) {
+        return submitCommand(parameters);
     }
 
-    protected void ExecuteCommand(DatagramSocket clientSocket, HashMap<String, Integer> parameters) throws Exception {
-        byte[] sendData = new byte[1024];
-        byte[] receiveData = new byte[1024];
-
-        // update state now to reflect the UI status,
-        // if command fails it will get changed with next refresh
-        for(HashMap.Entry<String, Integer> e: parameters.entrySet()){
-            parametersState.put(e.getKey(), e.getValue());
-        }
-
-        Gson gson = new Gson();
-
-        logger.trace("Execute command");
-
-        // Convert the parameter map values to arrays
-        String[] keyArray = parameters.keySet().toArray(new String[0]);
-        Integer[] valueArray = parameters.values().toArray(new Integer[0]);
-
-        // Prep the Command Request pack
-        EWPEExecuteCommandPack4Gson execCmdPackGson = new EWPEExecuteCommandPack4Gson();
-        execCmdPackGson.opt = keyArray;
-        execCmdPackGson.p = valueArray;
-        execCmdPackGson.t = "cmd";
-        String execCmdPackStr = gson.toJson(execCmdPackGson);
-
-        // Now Encrypt the Binding Request pack
-        String encryptedCommandReqPacket = Crypto.encryptPack(getKey().getBytes(), execCmdPackStr);
-        // String unencryptedCommandReqPacket = Crypto.decryptPack(device.getKey().getBytes(),
-        // encryptedCommandReqPacket);
-
-        // Prep the Command Request
-        EWPEExecCommand4Gson execCmdGson = new EWPEExecCommand4Gson();
-        execCmdGson.cid = "app";
-        execCmdGson.i = 0;
-        execCmdGson.t = "pack";
-        execCmdGson.uid = 0;
-        execCmdGson.pack = new String(encryptedCommandReqPacket.getBytes(), UTF8_CHARSET);
-        String execCmdStr = gson.toJson(execCmdGson);
-        sendData = execCmdStr.getBytes();
-        DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, getAddress(), getPort());
-        clientSocket.send(sendPacket);
-
-        // Recieve a response
-        DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
-        clientSocket.receive(receivePacket);
-        String modifiedSentence = new String(receivePacket.getData());
-        // System.out.println("FROM SERVER:" + modifiedSentence);
-        // byte[] modifiedSentenceArray = receivePacket.getData();
-
-        // Read the response
-        StringReader stringReader = new StringReader(modifiedSentence);
-        EWPEExecResponse4Gson execResponseGson = gson.fromJson(new JsonReader(stringReader),
-                EWPEExecResponse4Gson.class);
-        execResponseGson.decryptedPack = Crypto.decryptPack(this.getKey().getBytes(), execResponseGson.pack);
-
-        // Create the JSON to hold the response values
-        stringReader = new StringReader(execResponseGson.decryptedPack);
-        execResponseGson.packJson = gson.fromJson(new JsonReader(stringReader), EWPEExecResponsePack4Gson.class);
-
-    }
-
-    public void getDeviceStatus(DatagramSocket clientSocket) throws Exception {
-        Gson gson = new Gson();
-        byte[] sendData = new byte[1024];
-        byte[] receiveData = new byte[1024];
-
-        // Set the values in the HashMap
-        ArrayList<String> columns = new ArrayList<>();
-        columns.add("Pow");
-        columns.add("Mod");
-        columns.add("SetTem");
-        columns.add("WdSpd");
-        columns.add("Air");
-        columns.add("Blo");
-        columns.add("Health");
-        columns.add("SwhSlp");
-        columns.add("Lig");
-        columns.add("SwingLfRig");
-        columns.add("SwUpDn");
-        columns.add("Quiet");
-        columns.add("Tur");
-        columns.add("StHt");
-        columns.add("TemUn");
-        columns.add("TemSen");
-        columns.add("HeatCoolType");
-        columns.add("TemRec");
-        columns.add("SvSt");
-        columns.add("NoiseSet");
-
-        // Convert the parameter map values to arrays
-        String[] colArray = columns.toArray(new String[0]);
-
-        // Prep the Command Request pack
-        EWPEReqStatusPack4Gson reqStatusPackGson = new EWPEReqStatusPack4Gson();
-        reqStatusPackGson.t = "status";
-        reqStatusPackGson.cols = colArray;
-        reqStatusPackGson.mac = getId();
-        String reqStatusPackStr = gson.toJson(reqStatusPackGson);
-
-        // Now Encrypt the Binding Request pack
-        String encryptedStatusReqPacket = Crypto.encryptPack(getKey().getBytes(), reqStatusPackStr);
-
-        // Prep the Status Request
-        EWPEReqStatus4Gson reqStatusGson = new EWPEReqStatus4Gson();
-        reqStatusGson.cid = "app";
-        reqStatusGson.tcid = getId();
-        reqStatusGson.i = 0;
-        reqStatusGson.t = "pack";
-        reqStatusGson.uid = 0;
-        reqStatusGson.pack = new String(encryptedStatusReqPacket.getBytes(), UTF8_CHARSET);
-        String execCmdStr = gson.toJson(reqStatusGson);
-        sendData = execCmdStr.getBytes();
-        DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, getAddress(), getPort());
-        clientSocket.send(sendPacket);
-
-        logger.trace("EWPESmart: Sending Status request packet to device");
-
-        // Recieve a response
-        DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
-        clientSocket.receive(receivePacket);
-        String modifiedSentence = new String(receivePacket.getData());
-        logger.trace("EWPESmart: Received packet data {}", modifiedSentence);
-
-        // Read the response
-        StringReader stringReader = new StringReader(modifiedSentence);
-        statusResponseGson = gson.fromJson(new JsonReader(stringReader), EWPEStatusResponse4Gson.class);
-        statusResponseGson.decryptedPack = Crypto.decryptPack(this.getKey().getBytes(), statusResponseGson.pack);
-        logger.trace("EWPESmart: Response from device: {}", statusResponseGson.decryptedPack);
-
-        // Create the JSON to hold the response values
-        stringReader = new StringReader(statusResponseGson.decryptedPack);
-
-        statusResponseGson.packJson = gson.fromJson(new JsonReader(stringReader), EWPEStatusResponsePack4Gson.class);
-        UpdateTempFtoC();
+    private static CompletableFuture<EWPEExecResult> ignoredCommand() {
+        return CompletableFuture.completedFuture(null);
     }
 
-    private void UpdateTempFtoC(){
+    private EWPEStatusSnapshot UpdateTempFtoC(EWPEStatusSnapshot status) {
         // Status message back from A/C always reports degrees C
         //    If using Fahrenheit, us SetTem, TemUn and TemRec to
         //    reconstruct the Fahrenheit temperature
-        // Get Celsius or Fahrenheit from status message
-        Integer CorF = GetIntStatusVal("TemUn");
-        Integer newVal = GetIntStatusVal("SetTem");
-        Integer halfStep = GetIntStatusVal("TemRec");
-
-        if (CorF == null  || newVal == null || halfStep == null){
+        if (!status.isPresent(EWPEStatusColumn.TEM_UN) || !status.isPresent(EWPEStatusColumn.SET_TEM)
+                || !status.isPresent(EWPEStatusColumn.TEM_REC)) {
             logger.warn("SetTem,TemUn or TemRec is invalid, not performing conversion");
+            return status;
         }
-        else if (CorF == 1){    //convert SetTem to Fahrenheit
-            // Find the valueName in the Returned Status object
-            String columns[] = statusResponseGson.packJson.cols;
-            Integer values[] = statusResponseGson.packJson.dat;
-            List<String> colList = new ArrayList<>(Arrays.asList(columns));
-            int valueArrayposition = colList.indexOf("SetTem");
-            if (valueArrayposition != -1) {
-                //convert Celsius to Fahrenheit,
-                //SetTem status returns degrees C regardless of TempUn setting
-
-                // Perform the float Celsius to Fahrenheit conversion
-                //     add or subtract 0.5 based on the value of TemRec
-                //     (0 = -0.5, 1 = +0.5)
-                //     Pass into a rounding function, this yeild the correct Fahrenheit
-                //     Temperature to match A/C display
-                newVal = Integer.valueOf((int) Math.round(((newVal*9.0/5.0)+32.0)+ halfStep-0.5));
-
-                //Update the status array with F temp ,
-                //    assume this is updating the array in situ
-                values[valueArrayposition] = newVal;
-            }
+        // Get Celsius or Fahrenheit from status message
+        if (status.get(EWPEStatusColumn.TEM_UN) != 1) {
+            return status;
         }
+
+        //convert Celsius to Fahrenheit,
+        //SetTem status returns degrees C regardless of TempUn setting
+        int newVal = status.get(EWPEStatusColumn.SET_TEM);
+        int halfStep = status.get(EWPEStatusColumn.TEM_REC);
+
+        // Perform the float Celsius to Fahrenheit conversion
+        //     add or subtract 0.5 based on the value of TemRec
+        //     (0 = -0.5, 1 = +0.5)
+        //     Pass into a rounding function, this yeild the correct Fahrenheit
+        //     Temperature to match A/C display
+        newVal = (int) Math.round(((newVal * 9.0 / 5.0) + 32.0) + halfStep - 0.5);
+
+        //Update the status with F temp
+        return status.with(EWPEStatusColumn.SET_TEM, newVal);
     }
 }
@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ewpesmart.internal.device;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.openhab.binding.ewpesmart.internal.gson.EWPEScanReponsePack4Gson;
+import org.openhab.binding.ewpesmart.internal.gson.EWPEScanResponse4Gson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The EWPEDeviceCache keeps what a scan and a bind found out about each Air Conditioner
+ * in a small binary file: its MAC, address, port, name, firmware and bind key. On
+ * startup a device can be restored from it and verified with a single status request
+ * instead of scanning and binding again.
+ *
+ * @author Pawel Bogut - Initial contribution
+ */
+public class EWPEDeviceCache {
+
+    private static final int MAGIC = 0x45575045; // "EWPE"
+    private static final int VERSION = 1;
+
+    private static class Entry {
+        String mac;
+        String address;
+        int port;
+        String name;
+        String model;
+        String ver;
+        String key;
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(EWPEDeviceCache.class);
+    private final File file;
+    private Map<String, Entry> entries = null;
+
+    public EWPEDeviceCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Creates the device last bound at the given address, holding its cached key but
+     * not yet marked as bound.
+     *
+     * @return the device, or null if none was cached for the address
+     */
+    public synchronized EWPEDevice restore(String ipAddress) {
+        for (Entry entry : getEntries().values()) {
+            if (!entry.address.equals(ipAddress)) {
+                continue;
+            }
+            try {
+                EWPEScanResponse4Gson scanResponse = new EWPEScanResponse4Gson();
+                scanResponse.packJson = new EWPEScanReponsePack4Gson();
+                scanResponse.packJson.brand = "gree";
+                scanResponse.packJson.mac = entry.mac;
+                scanResponse.packJson.name = entry.name;
+                scanResponse.packJson.model = entry.model;
+                scanResponse.packJson.ver = entry.ver;
+
+                EWPEDevice device = new EWPEDevice();
+                device.setAddress(InetAddress.getByName(entry.address));
+                device.setPort(entry.port);
+                device.setScanResponseGson(scanResponse);
+                device.setKey(entry.key);
+                return device;
+            } catch (IOException e) {
+                logger.debug("EWPESmart: failed to restore cached device {} due to {}", entry.mac, e.getMessage());
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remembers the given bound device, replacing what was cached for its MAC.
+     */
+    public synchronized void store(EWPEDevice device) {
+        EWPEScanReponsePack4Gson scanPack = device.getScanResponseGson().packJson;
+        if (device.getKey() == null || scanPack == null) {
+            return;
+        }
+        Entry entry = new Entry();
+        entry.mac = device.getId();
+        entry.address = device.getAddress().getHostAddress();
+        entry.port = device.getPort();
+        entry.name = scanPack.name;
+        entry.model = scanPack.model;
+        entry.ver = scanPack.ver;
+        entry.key = device.getKey();
+        getEntries().put(entry.mac, entry);
+        save();
+    }
+
+    private Map<String, Entry> getEntries() {
+        if (entries == null) {
+            entries = load();
+        }
+        return entries;
+    }
+
+    private Map<String, Entry> load() {
+        Map<String, Entry> loaded = new LinkedHashMap<>();
+        if (!file.isFile()) {
+            return loaded;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                logger.debug("EWPESmart: ignoring device cache {} of an unknown format", file);
+                return loaded;
+            }
+            for (int count = in.readInt(); count > 0; count--) {
+                Entry entry = new Entry();
+                entry.mac = in.readUTF();
+                entry.address = in.readUTF();
+                entry.port = in.readUnsignedShort();
+                entry.name = readString(in);
+                entry.model = readString(in);
+                entry.ver = readString(in);
+                entry.key = in.readUTF();
+                loaded.put(entry.mac, entry);
+            }
+            logger.debug("EWPESmart: loaded {} devices from cache {}", loaded.size(), file);
+        } catch (IOException e) {
+            logger.debug("EWPESmart: failed to read device cache {} due to {}", file, e.getMessage());
+            loaded.clear();
+        }
+        return loaded;
+    }
+
+    private void save() {
+        File directory = file.getParentFile();
+        File temporary = new File(directory, file.getName() + ".tmp");
+        try {
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeInt(entries.size());
+                for (Entry entry : entries.values()) {
+                    out.writeUTF(entry.mac);
+                    out.writeUTF(entry.address);
+                    out.writeShort(entry.port);
+                    writeString(out, entry.name);
+                    writeString(out, entry.model);
+                    writeString(out, entry.ver);
+                    out.writeUTF(entry.key);
+                }
+            }
+            // replace the cache in one step, so a crash never leaves half a file behind
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("EWPESmart: failed to write device cache {} due to {}", file, e.getMessage());
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+}
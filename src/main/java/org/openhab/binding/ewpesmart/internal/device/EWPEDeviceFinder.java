@@ -12,26 +12,44 @@
  */
 package org.openhab.binding.ewpesmart.internal.device;
 
+import static org.openhab.binding.ewpesmart.internal.EWPESmartBindingConstants.*;
+
 import java.io.IOException;
 import java.io.StringReader;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.SocketTimeoutException;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.openhab.binding.ewpesmart.internal.encryption.Crypto;
+import org.openhab.binding.ewpesmart.internal.encryption.CryptoKey;
+import org.openhab.binding.ewpesmart.internal.gson.EWPEMessageCodec;
 import org.openhab.binding.ewpesmart.internal.gson.EWPEScanReponsePack4Gson;
-import org.openhab.binding.ewpesmart.internal.gson.EWPEScanRequest4Gson;
 import org.openhab.binding.ewpesmart.internal.gson.EWPEScanResponse4Gson;
+import org.openhab.binding.ewpesmart.internal.network.EWPEBufferPool;
+import org.openhab.binding.ewpesmart.internal.network.EWPESubnet;
+import org.openhab.binding.ewpesmart.internal.network.EWPETransport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.stream.JsonReader;
 
 /**
@@ -39,126 +57,411 @@ import com.google.gson.stream.JsonReader;
  * EWPE Airconditioners on the network and keeping a list of
  * found devices.
  *
+ * Found devices are indexed by MAC and by address, so both lookups take constant
+ * time. Replies may be added from other threads while handlers look devices up.
+ *
  * @author John Cunha - Initial contribution
  */
 
 public class EWPEDeviceFinder {
 
+    private static final int SCAN_PORT = 7000;
+    private static final CryptoKey GENERAL_KEY = CryptoKey.general();
+    private static final Gson GSON = new Gson();
+
+    /**
+     * Datagram received from the transport while scanning.
+     */
+    private static class ScanReply {
+        final InetSocketAddress source;
+        final byte[] data;
+        final int length;
+
+        ScanReply(InetSocketAddress source, byte[] data, int length) {
+            this.source = source;
+            this.data = data;
+            this.length = length;
+        }
+    }
+
     protected InetAddress mIPAddress = null;
-    protected HashMap<String, EWPEDevice> mDevicesHashMap = new HashMap<>();
+    protected List<InterfaceAddress> mInterfaces = Collections.emptyList();
+    // Both indexes are only written under the lock of the finder, lookups never lock
+    private final Map<String, EWPEDevice> mDevicesByMac = new ConcurrentHashMap<>();
+    private final Map<InetAddress, EWPEDevice> mDevicesByAddress = new ConcurrentHashMap<>();
+    private volatile Map<String, EWPEDevice> mSnapshot = null;
+
+    public EWPEDeviceFinder() {
+    }
 
     public EWPEDeviceFinder(InetAddress broadcastAddress) throws UnknownHostException {
         // mIPAddress = InetAddress.getByName("192.168.1.255");
         mIPAddress = broadcastAddress;
     }
 
-    public void Scan(DatagramSocket clientSocket) throws IOException, Exception {
-        byte[] sendData = new byte[1024];
-        byte[] receiveData = new byte[1024];
+    /**
+     * Broadcasts the scan request and collects replies for
+     * {@link org.openhab.binding.ewpesmart.internal.EWPESmartBindingConstants#DATAGRAM_SOCKET_TIMEOUT}.
+     */
+    public void Scan(EWPETransport transport) throws IOException, Exception {
+        scan(transport, Collections.singletonList(mIPAddress), null, DATAGRAM_SOCKET_TIMEOUT);
+    }
 
+    /**
+     * Broadcasts the scan request on all given interfaces at once and collects the
+     * replies within a single timeout window. A device answering on several
+     * interfaces is only kept once, by its MAC.
+     */
+    public void Scan(EWPETransport transport, List<InterfaceAddress> interfaces) throws IOException, Exception {
+        mInterfaces = interfaces;
+        Set<InetAddress> broadcasts = new LinkedHashSet<>();
+        for (InterfaceAddress ia : interfaces) {
+            if (ia.getBroadcast() != null) {
+                broadcasts.add(ia.getBroadcast());
+            }
+        }
+        scan(transport, broadcasts, null, DATAGRAM_SOCKET_TIMEOUT);
+    }
+
+    /**
+     * Sends the scan request to every host of the given subnet, for networks that drop
+     * broadcasts. The requests are sent in small batches from the transport timer, so
+     * neither the caller nor the access points are flooded, and the replies are
+     * decrypted on the given workers while the sweep goes on.
+     */
+    public void Sweep(EWPETransport transport, EWPESubnet subnet, Executor workers) throws IOException, Exception {
         Logger logger = LoggerFactory.getLogger(EWPEDeviceFinder.class);
+        byte[] scanReq = EWPEMessageCodec.encodeScanRequest();
+        mIPAddress = subnet.getBroadcast();
 
-        // Send the Scan message
-        // EWPEProtocolUtils protocolUtils = new EWPEProtocolUtils();
-        // sendData = protocolUtils.CreateScanRequest();
-        EWPEScanRequest4Gson scanGson = new EWPEScanRequest4Gson();
-        scanGson.t = "scan";
-
-        GsonBuilder gsonBuilder = new GsonBuilder();
-        // gsonBuilder.setLenient();
-        Gson gson = gsonBuilder.create();
-        String scanReq = gson.toJson(scanGson);
-        sendData = scanReq.getBytes();
-
-        logger.trace("EWPEair Binding Sending scan packet to {}", mIPAddress);
-
-        DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, mIPAddress, 7000);
-        clientSocket.send(sendPacket);
-
-        // Loop for respnses from devices until we get a timeout.
-        boolean timeoutRecieved = false;
-        while (!timeoutRecieved) {
-            // Receive a response
-            DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+        Queue<CompletableFuture<EWPEDevice>> decoded = new ConcurrentLinkedQueue<>();
+        EWPEBufferPool pool = transport.getBufferPool();
+        EWPETransport.Listener listener = (source, data, offset, length) -> {
+            byte[] buffer = length <= pool.getBufferSize() ? pool.acquire() : new byte[length];
+            System.arraycopy(data, offset, buffer, 0, length);
+            ScanReply reply = new ScanReply(source, buffer, length);
+            decoded.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return readReply(reply, logger);
+                } catch (Exception e) {
+                    logger.debug("EWPESmart: ignoring invalid scan reply from {}", source);
+                    return null;
+                } finally {
+                    pool.release(reply.data);
+                }
+            }, workers));
+        };
+        transport.addUnroutedListener(listener);
+        try {
+            logger.debug("EWPESmart: sweeping {} hosts of subnet {}", subnet.getHostCount(), subnet);
+            SweepSender sender = new SweepSender(transport, subnet, scanReq, logger);
+            transport.schedule(sender, 0, TimeUnit.MILLISECONDS);
+            // twice the planned duration, so a stalled timer cannot block the caller for good
+            long batches = subnet.getHostCount() / SWEEP_BATCH_SIZE + 1;
+            long sweepTimeout = 2 * batches * SWEEP_BATCH_INTERVAL + DATAGRAM_SOCKET_TIMEOUT;
             try {
-                clientSocket.receive(receivePacket);
-                InetAddress remoteAddress = receivePacket.getAddress();
-                int remotePort = receivePacket.getPort();
-
-                // Read the response
-                String modifiedSentence = new String(receivePacket.getData());
-                StringReader stringReader = new StringReader(modifiedSentence);
-                EWPEScanResponse4Gson scanResponseGson = gson.fromJson(new JsonReader(stringReader),
-                        EWPEScanResponse4Gson.class);
-
-                // If there was no pack, ignore the response
-                if (scanResponseGson.pack == null) {
-                    continue;
+                sender.done.get(sweepTimeout, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                sender.cancelled = true;
+                logger.warn("EWPESmart: sweep of subnet {} did not finish within {} ms, {} hosts were asked",
+                        subnet, sweepTimeout, sender.next);
+            } catch (InterruptedException e) {
+                sender.cancelled = true;
+                throw e;
+            }
+            if (sender.failed > 0) {
+                logger.debug("EWPESmart: failed to send scan packet to {} hosts of subnet {}", sender.failed,
+                        subnet);
+            }
+
+            // give the last hosts time to answer
+            Thread.sleep(INITIAL_REQUEST_TIMEOUT);
+        } finally {
+            transport.removeUnroutedListener(listener);
+        }
+        for (CompletableFuture<EWPEDevice> reply : decoded) {
+            EWPEDevice newDevice;
+            try {
+                newDevice = reply.get(DATAGRAM_SOCKET_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                logger.debug("EWPESmart: gave up decoding a scan reply");
+                continue;
+            }
+            if (newDevice != null) {
+                AddDevice(newDevice);
+            }
+        }
+    }
+
+    /**
+     * Sends one batch of scan requests of a sweep per run and schedules the next run.
+     * A full send buffer is retried with the next batch, a bounded number of times;
+     * any other send failure skips the host.
+     */
+    private static class SweepSender implements Runnable {
+        private static final int MAX_BUFFER_FULL_RETRIES = 50;
+
+        final EWPETransport transport;
+        final EWPESubnet subnet;
+        final byte[] request;
+        final Logger logger;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        volatile boolean cancelled = false;
+        volatile int next = 0;
+        volatile int failed = 0;
+        int bufferFullRetries = 0;
+
+        SweepSender(EWPETransport transport, EWPESubnet subnet, byte[] request, Logger logger) {
+            this.transport = transport;
+            this.subnet = subnet;
+            this.request = request;
+            this.logger = logger;
+        }
+
+        @Override
+        public void run() {
+            try {
+                int end = Math.min(next + SWEEP_BATCH_SIZE, subnet.getHostCount());
+                while (next < end && !cancelled) {
+                    InetAddress host = subnet.getHost(next);
+                    try {
+                        if (!transport.trySend(new InetSocketAddress(host, SCAN_PORT), request)) {
+                            if (++bufferFullRetries <= MAX_BUFFER_FULL_RETRIES) {
+                                // send the rest of the batch with the next one
+                                break;
+                            }
+                            logger.trace("EWPESmart: send buffer stays full, skipping {}", host);
+                            failed++;
+                        }
+                    } catch (IOException e) {
+                        // e.g. the host is unreachable, retrying would fail the same way
+                        logger.trace("EWPESmart: failed to send scan packet to {} due to {}", host,
+                                e.getMessage());
+                        failed++;
+                    }
+                    bufferFullRetries = 0;
+                    next++;
+                }
+                if (cancelled || next >= subnet.getHostCount()) {
+                    done.complete(null);
+                } else {
+                    transport.schedule(this, SWEEP_BATCH_INTERVAL, TimeUnit.MILLISECONDS);
                 }
+            } catch (RuntimeException e) {
+                done.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Sends the scan request straight to the given address and returns as soon as that
+     * device answered, without waiting for any other device.
+     *
+     * @return the device, or null if it did not answer in time
+     */
+    public EWPEDevice ScanDevice(EWPETransport transport, InetAddress deviceAddress) throws IOException, Exception {
+        // a device on the local network answers well within the initial request timeout
+        scan(transport, Collections.singletonList(deviceAddress), deviceAddress, INITIAL_REQUEST_TIMEOUT);
+        return GetDeviceByAddress(deviceAddress);
+    }
 
-                scanResponseGson.decryptedPack = Crypto.decryptPack(Crypto.GetAESGeneralKeyByteArray(),
-                        scanResponseGson.pack);
-                String decryptedMsg = Crypto.decryptPack(Crypto.GetAESGeneralKeyByteArray(),
-                        scanResponseGson.pack);
+    /**
+     * @param expected the address of the only device to wait for, or null to collect all
+     *            replies until the timeout passed
+     */
+    private void scan(EWPETransport transport, Collection<InetAddress> targets, InetAddress expected,
+            long timeout) throws IOException, Exception {
+        Logger logger = LoggerFactory.getLogger(EWPEDeviceFinder.class);
 
-                // If something was wrong with the decryption, ignore the response
-                if (decryptedMsg == null) {
-                    continue;
+        // Send the Scan message
+        byte[] scanReq = EWPEMessageCodec.encodeScanRequest();
+
+        // Replies come from addresses the transport does not know yet
+        BlockingQueue<ScanReply> replies = new LinkedBlockingQueue<>();
+        EWPEBufferPool pool = transport.getBufferPool();
+        EWPETransport.Listener listener = (source, data, offset, length) -> {
+            // the transport reuses its receive buffer, so keep the reply in a pooled one
+            byte[] buffer = length <= pool.getBufferSize() ? pool.acquire() : new byte[length];
+            System.arraycopy(data, offset, buffer, 0, length);
+            replies.offer(new ScanReply(source, buffer, length));
+        };
+        transport.addUnroutedListener(listener);
+        try {
+            IOException sendFailure = null;
+            int sent = 0;
+            for (InetAddress target : targets) {
+                logger.trace("EWPEair Binding Sending scan packet to {}", target);
+                try {
+                    transport.send(new InetSocketAddress(target, SCAN_PORT), scanReq);
+                    sent++;
+                } catch (IOException e) {
+                    // one unusable interface must not keep the others from being scanned
+                    logger.debug("EWPESmart: failed to send scan packet to {} due to {}", target, e.getMessage());
+                    sendFailure = e;
                 }
-                logger.debug("EWPESmart Binding Response received from address {}", remoteAddress);
-                logger.debug("EWPESmart Binding Response : {}", decryptedMsg);
-
-                // Create the JSON to hold the response values
-                stringReader = new StringReader(decryptedMsg);
-                scanResponseGson.packJson = gson.fromJson(new JsonReader(stringReader), EWPEScanReponsePack4Gson.class);
-
-                // Now make sure the device is reported as a EWPE device
-                if (scanResponseGson.packJson.brand.equals("gree")) {
-                    // Create a new EWPEDevice
-                    EWPEDevice newDevice = new EWPEDevice();
-                    newDevice.setAddress(remoteAddress);
-                    newDevice.setPort(remotePort);
-                    newDevice.setBroadcast(mIPAddress);
-                    newDevice.setScanResponseGson(scanResponseGson);
+            }
+            if (sent == 0 && sendFailure != null) {
+                throw sendFailure;
+            }
 
+            // Loop for respnses from devices until the deadline, which no reply extends
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (true) {
+                long wait = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                ScanReply reply = wait > 0 ? replies.poll(wait, TimeUnit.MILLISECONDS) : null;
+                if (reply == null) {
+                    // We've received a timeout so lets quit searching for devices
+                    break;
+                }
+                EWPEDevice newDevice;
+                try {
+                    newDevice = readReply(reply, logger);
+                } catch (Exception e) {
+                    // one garbled reply must not end the scan
+                    logger.debug("EWPESmart: ignoring invalid scan reply from {}", reply.source);
+                    continue;
+                } finally {
+                    pool.release(reply.data);
+                }
+                if (newDevice != null) {
                     AddDevice(newDevice);
+                    if (newDevice.getAddress().equals(expected)) {
+                        break;
+                    }
                 }
-            } catch (SocketTimeoutException e) {
-                // We've received a timeout so lets quit searching for devices
-                timeoutRecieved = true;
+            }
+        } finally {
+            transport.removeUnroutedListener(listener);
+            for (ScanReply reply : replies) {
+                pool.release(reply.data);
             }
         }
     }
 
-    public void AddDevice(EWPEDevice newDevice) {
-        mDevicesHashMap.put(newDevice.getId(), newDevice);
+    /**
+     * Creates the device that sent the given scan reply.
+     *
+     * @return the device, or null if the reply is not one of an EWPE device
+     */
+    private EWPEDevice readReply(ScanReply reply, Logger logger) throws Exception {
+        InetAddress remoteAddress = reply.source.getAddress();
+        int remotePort = reply.source.getPort();
+
+        // Read the response
+        String modifiedSentence = new String(reply.data, 0, reply.length, StandardCharsets.UTF_8);
+        StringReader stringReader = new StringReader(modifiedSentence);
+        EWPEScanResponse4Gson scanResponseGson = GSON.fromJson(new JsonReader(stringReader),
+                EWPEScanResponse4Gson.class);
+
+        // If there was no pack, ignore the response
+        if (scanResponseGson.pack == null) {
+            return null;
+        }
+
+        String decryptedMsg = Crypto.decryptPack(GENERAL_KEY, scanResponseGson.pack);
+        scanResponseGson.decryptedPack = decryptedMsg;
+
+        // If something was wrong with the decryption, ignore the response
+        if (decryptedMsg == null) {
+            return null;
+        }
+        logger.debug("EWPESmart Binding Response received from address {}", remoteAddress);
+        logger.debug("EWPESmart Binding Response : {}", decryptedMsg);
+
+        // Create the JSON to hold the response values
+        stringReader = new StringReader(decryptedMsg);
+        scanResponseGson.packJson = GSON.fromJson(new JsonReader(stringReader), EWPEScanReponsePack4Gson.class);
+
+        // Now make sure the device is reported as a EWPE device
+        if (!"gree".equals(scanResponseGson.packJson.brand)) {
+            return null;
+        }
+        // Create a new EWPEDevice
+        EWPEDevice newDevice = new EWPEDevice();
+        newDevice.setAddress(remoteAddress);
+        newDevice.setPort(remotePort);
+        newDevice.setBroadcast(getBroadcast(remoteAddress));
+        newDevice.setScanResponseGson(scanResponseGson);
+        return newDevice;
     }
 
-    public EWPEDevice GetDevice(String id) {
-        return mDevicesHashMap.get(id);
+    /**
+     * Returns the broadcast address of the scanned interface the given address belongs to.
+     */
+    private InetAddress getBroadcast(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        for (InterfaceAddress ia : mInterfaces) {
+            byte[] network = ia.getAddress().getAddress();
+            if (ia.getBroadcast() == null || network.length != bytes.length) {
+                continue;
+            }
+            int prefix = ia.getNetworkPrefixLength();
+            boolean matches = true;
+            for (int i = 0; i < bytes.length && matches && prefix > 0; i++, prefix -= 8) {
+                int mask = prefix >= 8 ? 0xff : (0xff << (8 - prefix)) & 0xff;
+                matches = (bytes[i] & mask) == (network[i] & mask);
+            }
+            if (matches) {
+                return ia.getBroadcast();
+            }
+        }
+        return mIPAddress;
     }
 
-    public HashMap<String, EWPEDevice> GetDevices() {
-        return mDevicesHashMap;
+    /**
+     * Adds the device or replaces the one found before with the same MAC. Both indexes
+     * are updated together, so a device that moved to another address, or an address
+     * that was handed to another device, is never found under the stale one.
+     */
+    public synchronized void AddDevice(EWPEDevice newDevice) {
+        // publish the new address first, so the device can always be found
+        EWPEDevice displaced = mDevicesByAddress.put(newDevice.getAddress(), newDevice);
+        EWPEDevice previous = mDevicesByMac.put(newDevice.getId(), newDevice);
+        if (previous != null && !previous.getAddress().equals(newDevice.getAddress())) {
+            mDevicesByAddress.remove(previous.getAddress(), previous);
+        }
+        if (displaced != null && !displaced.getId().equals(newDevice.getId())) {
+            mDevicesByMac.remove(displaced.getId(), displaced);
+        }
+        mSnapshot = null;
     }
 
-    public EWPEDevice GetDeviceByIPAddress(String ipAddress) {
-        EWPEDevice returnDevice = null;
-
-        Set<String> keySet = mDevicesHashMap.keySet();
-        Iterator<String> iter = keySet.iterator();
-        while (returnDevice == null && iter.hasNext()) {
-            Object thiskey = iter.next();
-            EWPEDevice currDevice = mDevicesHashMap.get(thiskey);
-            if (currDevice != null && currDevice.getAddress().getHostAddress().equals(ipAddress)) {
-                returnDevice = currDevice;
+    public EWPEDevice GetDevice(String id) {
+        return mDevicesByMac.get(id);
+    }
+
+    /**
+     * Returns an immutable view of the devices found so far, keyed by MAC, which is not
+     * affected by devices added later.
+     */
+    public Map<String, EWPEDevice> GetDevices() {
+        Map<String, EWPEDevice> snapshot = mSnapshot;
+        if (snapshot == null) {
+            // built on demand, so a scan adding many devices does not copy the map each time
+            synchronized (this) {
+                snapshot = mSnapshot;
+                if (snapshot == null) {
+                    snapshot = Collections.unmodifiableMap(new HashMap<>(mDevicesByMac));
+                    mSnapshot = snapshot;
+                }
             }
         }
+        return snapshot;
+    }
 
-        return returnDevice;
+    public EWPEDevice GetDeviceByAddress(InetAddress address) {
+        return mDevicesByAddress.get(address);
+    }
+
+    public EWPEDevice GetDeviceByIPAddress(String ipAddress) {
+        try {
+            return GetDeviceByAddress(InetAddress.getByName(ipAddress));
+        } catch (UnknownHostException e) {
+            return null;
+        }
     }
 
     public Integer GetScannedDeviceCount() {
-        return new Integer(mDevicesHashMap.size());
+        return new Integer(mDevicesByMac.size());
     }
 }
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ewpesmart.internal.device;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openhab.binding.ewpesmart.internal.gson.EWPEScanResponse4Gson;
+import org.osgi.service.component.annotations.Component;
+
+/**
+ * The EWPEDeviceRegistry remembers every Air Conditioner that answered a scan, by MAC,
+ * together with when it was last seen. Discovery keeps it up to date, and handlers look
+ * their device up in it instead of scanning the network themselves.
+ *
+ * Devices are indexed by MAC and by address, so lookups take constant time and never
+ * lock, even while a rediscovery updates many devices.
+ *
+ * The registry only holds what a scan reported. Every lookup creates a new, unbound
+ * {@link EWPEDevice}, so no two handlers ever share the state of one.
+ *
+ * @author Pawel Bogut - Initial contribution
+ */
+@Component(service = EWPEDeviceRegistry.class)
+public class EWPEDeviceRegistry {
+
+    /**
+     * How a scanned device relates to what the registry knew before.
+     */
+    public enum Change {
+        NEW,
+        CHANGED,
+        UNCHANGED
+    }
+
+    private static class Entry {
+        final InetAddress address;
+        final int port;
+        final InetAddress broadcast;
+        final EWPEScanResponse4Gson scanResponse;
+        volatile long lastSeen;
+
+        Entry(EWPEDevice device, long lastSeen) {
+            this.address = device.getAddress();
+            this.port = device.getPort();
+            this.broadcast = device.getBroadcast();
+            this.scanResponse = device.getScanResponseGson();
+            this.lastSeen = lastSeen;
+        }
+
+        String getName() {
+            return scanResponse.packJson.name;
+        }
+
+        boolean isSameDevice(Entry other) {
+            return address.equals(other.address) && port == other.port && Objects.equals(getName(), other.getName());
+        }
+
+        EWPEDevice newDevice() {
+            EWPEDevice device = new EWPEDevice();
+            device.setAddress(address);
+            device.setPort(port);
+            device.setBroadcast(broadcast);
+            device.setScanResponseGson(scanResponse);
+            return device;
+        }
+    }
+
+    // Both indexes are only written under the lock of the registry
+    private final Map<String, Entry> devices = new ConcurrentHashMap<>();
+    private final Map<InetAddress, Entry> devicesByAddress = new ConcurrentHashMap<>();
+
+    /**
+     * Records that the given device answered a scan just now.
+     *
+     * @return whether the device is new, or changed its address, port or name
+     */
+    public synchronized Change update(EWPEDevice device) {
+        Entry entry = new Entry(device, System.currentTimeMillis());
+        // publish the new address first, so the device can always be found; a device whose
+        // address was handed to this one stays known by MAC until it expires
+        devicesByAddress.put(entry.address, entry);
+        Entry previous = devices.put(device.getId(), entry);
+        if (previous != null && !previous.address.equals(entry.address)) {
+            devicesByAddress.remove(previous.address, previous);
+        }
+        if (previous == null) {
+            return Change.NEW;
+        }
+        return previous.isSameDevice(entry) ? Change.UNCHANGED : Change.CHANGED;
+    }
+
+    /**
+     * Records that the given bound device answered just now. Replies of bound devices go
+     * to their handler rather than to discovery, so handlers keep their device from expiring.
+     */
+    public void seen(EWPEDevice device) {
+        Entry entry = devices.get(device.getId());
+        if (entry != null && entry.address.equals(device.getAddress()) && entry.port == device.getPort()) {
+            entry.lastSeen = System.currentTimeMillis();
+        } else {
+            update(device);
+        }
+    }
+
+    /**
+     * Forgets every device that was not seen within the given time.
+     *
+     * @return the forgotten devices
+     */
+    public synchronized List<EWPEDevice> expire(long ttl) {
+        long oldest = System.currentTimeMillis() - ttl;
+        List<EWPEDevice> expired = new ArrayList<>();
+        for (Map.Entry<String, Entry> device : devices.entrySet()) {
+            Entry entry = device.getValue();
+            if (entry.lastSeen < oldest && devices.remove(device.getKey(), entry)) {
+                devicesByAddress.remove(entry.address, entry);
+                expired.add(entry.newDevice());
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * @return a new device for the given MAC, or null if it was not seen
+     */
+    public EWPEDevice getDevice(String mac) {
+        Entry entry = devices.get(mac);
+        return entry == null ? null : entry.newDevice();
+    }
+
+    /**
+     * @return a new device for the one last seen at the given address, or null if there is none
+     */
+    public EWPEDevice getDeviceByIPAddress(String ipAddress) {
+        try {
+            Entry entry = devicesByAddress.get(InetAddress.getByName(ipAddress));
+            return entry == null ? null : entry.newDevice();
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    public int size() {
+        return devices.size();
+    }
+}
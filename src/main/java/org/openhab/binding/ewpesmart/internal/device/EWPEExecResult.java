@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ewpesmart.internal.device;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The EWPEExecResult holds the parameters the Air Conditioner acknowledged
+ * in response to a "cmd" pack.
+ *
+ * @author Pawel Bogut - Initial contribution
+ */
+public class EWPEExecResult {
+    private final int resultCode;
+    private final Map<String, Integer> values;
+
+    /**
+     * Creates the result from a decoded "res" pack.
+     *
+     * @param applied the values the device reports as applied, in the order of opt
+     * @param nulls the positions of null values in applied, or null if there are none
+     */
+    public EWPEExecResult(int resultCode, String[] opt, int[] applied, BitSet nulls) {
+        this.resultCode = resultCode;
+        Map<String, Integer> parameters = new LinkedHashMap<>();
+        if (opt != null && applied != null) {
+            for (int i = 0; i < opt.length && i < applied.length; i++) {
+                if (opt[i] != null && (nulls == null || !nulls.get(i))) {
+                    parameters.put(opt[i], applied[i]);
+                }
+            }
+        }
+        values = Collections.unmodifiableMap(parameters);
+    }
+
+    public int getResultCode() {
+        return resultCode;
+    }
+
+    public Map<String, Integer> getValues() {
+        return values;
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ewpesmart.internal.device;
+
+import static org.openhab.binding.ewpesmart.internal.EWPESmartBindingConstants.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The EWPERoundTripEstimator derives the request timeout of one Air Conditioner
+ * from the round trip times it measured, the way TCP computes its retransmission
+ * timeout (RFC 6298): a smoothed round trip time plus four times its variance, bounded
+ * by {@link org.openhab.binding.ewpesmart.internal.EWPESmartBindingConstants#MINIMUM_REQUEST_TIMEOUT}
+ * and {@link org.openhab.binding.ewpesmart.internal.EWPESmartBindingConstants#DATAGRAM_SOCKET_TIMEOUT}.
+ * Every timeout doubles the current timeout until the next sample arrives.
+ *
+ * @author Pawel Bogut - Initial contribution
+ */
+public class EWPERoundTripEstimator {
+
+    private static final double ALPHA = 1.0 / 8;
+    private static final double BETA = 1.0 / 4;
+
+    private double smoothedRtt = -1;
+    private double rttVariance = 0;
+    private long timeout = INITIAL_REQUEST_TIMEOUT;
+
+    /**
+     * Returns the time in milliseconds to wait for the response to a request.
+     */
+    public synchronized long getTimeout() {
+        return timeout;
+    }
+
+    public synchronized long getSmoothedRtt() {
+        return smoothedRtt < 0 ? -1 : Math.round(smoothedRtt);
+    }
+
+    /**
+     * Adds the round trip time of a request that was answered. Only requests sent once
+     * may be sampled, as the response to a resent request could answer either send
+     * (Karn's algorithm).
+     */
+    public synchronized void sample(long rtt) {
+        if (smoothedRtt < 0) {
+            smoothedRtt = rtt;
+            rttVariance = rtt / 2.0;
+        } else {
+            rttVariance = (1 - BETA) * rttVariance + BETA * Math.abs(smoothedRtt - rtt);
+            smoothedRtt = (1 - ALPHA) * smoothedRtt + ALPHA * rtt;
+        }
+        timeout = bound(Math.round(smoothedRtt + 4 * rttVariance));
+    }
+
+    /**
+     * Backs the timeout off after a request was not answered in time.
+     */
+    public synchronized void timedOut() {
+        timeout = bound(timeout * 2);
+    }
+
+    /**
+     * Returns the delay before the given retry, growing exponentially with the attempt and
+     * randomized so retries of several devices do not line up.
+     *
+     * @param attempt the attempt that failed, starting with 1
+     */
+    public static long retryDelay(int attempt) {
+        long delay = RETRY_BACKOFF_BASE << Math.min(attempt - 1, 16);
+        delay = Math.min(delay, DATAGRAM_SOCKET_TIMEOUT);
+        // "equal jitter": at least half of the delay, the rest random
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private static long bound(long value) {
+        return Math.max(MINIMUM_REQUEST_TIMEOUT, Math.min(value, DATAGRAM_SOCKET_TIMEOUT));
+    }
+}
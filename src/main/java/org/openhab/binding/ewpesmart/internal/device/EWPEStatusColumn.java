@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ewpesmart.internal.device;
+
+import static org.openhab.binding.ewpesmart.internal.EWPESmartBindingConstants.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The EWPEStatusColumn enum is the registry of the status columns polled from the
+ * Air Conditioner. For every column it defines the channel exposing it, how the
+ * value is converted and which values may be sent to the device. The ordinal is
+ * used as index into {@link EWPEStatusSnapshot}.
+ *
+ * @author Pawel Bogut - Initial contribution
+ */
+public enum EWPEStatusColumn {
+    POW("Pow", CHANNEL_POWER, Codec.ON_OFF, 0, 1), // Power (0 or 1)
+    MOD("Mod", CHANNEL_MODE, Codec.DECIMAL, 0, 4), // Mode: Auto: 0, Cool: 1, Dry: 2, Fan: 3, Heat: 4
+    SET_TEM("SetTem", CHANNEL_TEMP, Codec.DECIMAL, 16, 86), // Requested Temperature, Celsius or Fahrenheit
+    WD_SPD("WdSpd", CHANNEL_WIND_SPEED, Codec.DECIMAL, 0, 5), // Fan Speed : Auto:0, Low:1, ... High :5
+    AIR("Air", CHANNEL_AIR, Codec.ON_OFF, 0, 1), // Air Mode Enabled
+    BLO("Blo", CHANNEL_DRY, Codec.ON_OFF, 0, 1), // Dry
+    HEALTH("Health", CHANNEL_HEALTH, Codec.ON_OFF, 0, 1), // Health
+    SWH_SLP("SwhSlp", CHANNEL_SLEEP, Codec.ON_OFF, 0, 1), // Sleep
+    LIG("Lig", CHANNEL_LIGHT, Codec.ON_OFF, 0, 1), // Light On
+    SWING_LF_RIG("SwingLfRig", CHANNEL_SWING_HORIZONTAL, Codec.DECIMAL, 0, 6), // Swing Left Right
+    SW_UP_DN("SwUpDn", CHANNEL_SWING_VERTICAL, Codec.DECIMAL, 0, 11), // Swing Up Down
+    QUIET("Quiet", CHANNEL_QUIET, Codec.DECIMAL, 0, 2), // Quiet mode: Off: 0, Auto: 1, Quiet: 2
+    TUR("Tur", CHANNEL_TURBO, Codec.ON_OFF, 0, 1), // Turbo
+    ST_HT("StHt", CHANNEL_HEAT_8, Codec.ON_OFF, 0, 1), // 8 degrees heating
+    TEM_UN("TemUn", CHANNEL_TEMP_UNIT, Codec.DECIMAL, 0, 1), // Temperature unit, 0 for Celsius, 1 for Fahrenheit
+    TEM_SEN("TemSen", CHANNEL_TEMP_SENSOR, Codec.ROOM_TEMPERATURE), // Room Temperature (+40 offset)
+    HEAT_COOL_TYPE("HeatCoolType", CHANNEL_HEAT_COOL_TYPE, Codec.DECIMAL),
+    TEM_REC("TemRec", null, Codec.DECIMAL), // (0 or 1), half step of the Fahrenheit set point, part of SetTem
+    SV_ST("SvSt", CHANNEL_POWER_SAVE, Codec.ON_OFF, 0, 1), // Power Saving
+    NOISE_SET("NoiseSet", CHANNEL_NOISE_SET, Codec.DECIMAL);
+
+    /**
+     * Conversion between column values and channel states.
+     */
+    public enum Codec {
+        ON_OFF,
+        DECIMAL,
+        ROOM_TEMPERATURE
+    }
+
+    private static final EWPEStatusColumn[] COLUMNS = values();
+    private static final Map<String, EWPEStatusColumn> BY_NAME = new HashMap<>();
+    private static final Map<String, EWPEStatusColumn> BY_CHANNEL = new HashMap<>();
+    private static final String[] NAMES = new String[COLUMNS.length];
+
+    static {
+        for (EWPEStatusColumn column : COLUMNS) {
+            BY_NAME.put(column.columnName, column);
+            if (column.channelId != null) {
+                BY_CHANNEL.put(column.channelId, column);
+            }
+            NAMES[column.ordinal()] = column.columnName;
+        }
+    }
+
+    private final String columnName;
+    private final String channelId;
+    private final Codec codec;
+    private final boolean writable;
+    private final int minValue;
+    private final int maxValue;
+
+    private EWPEStatusColumn(String columnName, String channelId, Codec codec) {
+        this(columnName, channelId, codec, false, 0, 0);
+    }
+
+    private EWPEStatusColumn(String columnName, String channelId, Codec codec, int minValue, int maxValue) {
+        this(columnName, channelId, codec, true, minValue, maxValue);
+    }
+
+    private EWPEStatusColumn(String columnName, String channelId, Codec codec, boolean writable, int minValue,
+            int maxValue) {
+        this.columnName = columnName;
+        this.channelId = channelId;
+        this.codec = codec;
+        this.writable = writable;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+    }
+
+    /**
+     * Returns the name of the column as used in the protocol.
+     */
+    public String getColumnName() {
+        return columnName;
+    }
+
+    /**
+     * Returns the id of the channel exposing this column, or null if it has none.
+     */
+    public String getChannelId() {
+        return channelId;
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public boolean isWritable() {
+        return writable;
+    }
+
+    /**
+     * Checks whether the value may be sent to the device for this column.
+     */
+    public boolean isValidValue(int value) {
+        return writable && value >= minValue && value <= maxValue;
+    }
+
+    public long getMask() {
+        return 1L << ordinal();
+    }
+
+    /**
+     * Returns the column for the given protocol name or null if it is unknown.
+     */
+    public static EWPEStatusColumn fromColumnName(String columnName) {
+        return BY_NAME.get(columnName);
+    }
+
+    /**
+     * Returns the column exposed by the given channel or null if there is none.
+     */
+    public static EWPEStatusColumn fromChannelId(String channelId) {
+        return BY_CHANNEL.get(channelId);
+    }
+
+    /**
+     * Returns the column with the given ordinal, e.g. the index of a bit in a column mask.
+     */
+    public static EWPEStatusColumn fromOrdinal(int ordinal) {
+        return COLUMNS[ordinal];
+    }
+
+    public static int count() {
+        return COLUMNS.length;
+    }
+
+    /**
+     * Returns the protocol names of all columns in ordinal order, as requested from the device.
+     * The same array instance is returned on every call.
+     */
+    static String[] columnNames() {
+        return NAMES;
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ewpesmart.internal.device;
+
+import static org.openhab.binding.ewpesmart.internal.EWPESmartBindingConstants.MINIMUM_REFRESH_TIME;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The EWPEStatusPoller polls the status of all bound Air Conditioners from
+ * one central sweep. Every sweep fires the status requests of all due devices
+ * back-to-back and collects the responses as they arrive, so a sweep takes
+ * about one round trip no matter how many devices are registered.
+ *
+ * Devices whose {@link EWPECircuitBreaker} is open are not polled. They are probed
+ * with a bind request on the backed-off schedule of the breaker instead, and polled
+ * again once any answer closed the breaker.
+ *
+ * @author Pawel Bogut - Initial contribution
+ */
+public class EWPEStatusPoller {
+
+    /**
+     * Receives the outcome of every status request made for a device.
+     */
+    public interface StatusListener {
+        void statusReceived(EWPEStatusSnapshot status);
+
+        void statusFailed(Throwable error);
+
+        /**
+         * The device stopped answering and is only probed from now on.
+         */
+        void deviceUnreachable();
+
+        /**
+         * The device answered again, its status is polled again.
+         */
+        void deviceRecovered();
+    }
+
+    private static class Registration {
+        final EWPEDevice device;
+        final StatusListener listener;
+        final long interval;
+        long nextPoll = 0;
+        volatile boolean inFlight = false;
+        volatile boolean unreachable = false;
+
+        Registration(EWPEDevice device, StatusListener listener, long interval) {
+            this.device = device;
+            this.listener = listener;
+            this.interval = interval;
+        }
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(EWPEStatusPoller.class);
+    private final Map<EWPEDevice, Registration> registrations = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> sweepTask = null;
+
+    public EWPEStatusPoller(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Starts polling the given device every refreshTime seconds.
+     */
+    public synchronized void register(EWPEDevice device, int refreshTime, StatusListener listener) {
+        long interval = Math.max(TimeUnit.SECONDS.toMillis(refreshTime), MINIMUM_REFRESH_TIME);
+        registrations.put(device, new Registration(device, listener, interval));
+        if (sweepTask == null) {
+            sweepTask = scheduler.scheduleWithFixedDelay(this::sweep, 0, MINIMUM_REFRESH_TIME,
+                    TimeUnit.MILLISECONDS);
+            logger.debug("EWPESmart: started status poller");
+        }
+    }
+
+    public synchronized void unregister(EWPEDevice device) {
+        registrations.remove(device);
+        if (registrations.isEmpty() && sweepTask != null) {
+            sweepTask.cancel(false);
+            sweepTask = null;
+            logger.debug("EWPESmart: stopped status poller");
+        }
+    }
+
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        int polled = 0;
+        int probed = 0;
+        for (Registration registration : registrations.values()) {
+            if (registration.device.getCircuitBreaker().isOpen()) {
+                if (probe(registration, now)) {
+                    probed++;
+                }
+                continue;
+            }
+            // the breaker may also close on an answer to a command or a late poll
+            if (registration.unreachable) {
+                registration.unreachable = false;
+                notify(registration, registration.listener::deviceRecovered);
+            }
+            // a device that has not answered the previous request yet is skipped
+            if (registration.inFlight || now < registration.nextPoll || !registration.device.getIsBound()) {
+                continue;
+            }
+            registration.inFlight = true;
+            registration.nextPoll = now + registration.interval;
+            polled++;
+            try {
+                registration.device.requestStatus().whenCompleteAsync((status, error) -> {
+                    try {
+                        if (error == null) {
+                            registration.listener.statusReceived(status);
+                        } else {
+                            registration.listener.statusFailed(error);
+                        }
+                    } catch (RuntimeException e) {
+                        logger.warn("EWPESmart: failed to process status of device {} due to {}",
+                                registration.device.getId(), e.getMessage());
+                    } finally {
+                        registration.inFlight = false;
+                    }
+                }, scheduler);
+            } catch (RuntimeException e) {
+                // keep the sweep alive for all other devices
+                registration.inFlight = false;
+                logger.warn("EWPESmart: failed to poll device {} due to {}", registration.device.getId(),
+                        e.getMessage());
+            }
+        }
+        logger.trace("EWPESmart: status sweep sent {} requests and {} probes", polled, probed);
+    }
+
+    private boolean probe(Registration registration, long now) {
+        if (!registration.unreachable) {
+            registration.unreachable = true;
+            notify(registration, registration.listener::deviceUnreachable);
+        }
+        if (registration.inFlight || !registration.device.getCircuitBreaker().tryProbe(now)) {
+            return false;
+        }
+        registration.inFlight = true;
+        logger.debug("EWPESmart: probing unreachable device {}", registration.device.getId());
+        try {
+            // the device may have been power cycled, so probe with a new bind
+            // an answer closes the breaker, and the next sweep reports the recovery
+            registration.device.bind().whenCompleteAsync((result, error) -> registration.inFlight = false,
+                    scheduler);
+        } catch (RuntimeException e) {
+            registration.inFlight = false;
+            logger.warn("EWPESmart: failed to probe device {} due to {}", registration.device.getId(),
+                    e.getMessage());
+        }
+        return true;
+    }
+
+    private void notify(Registration registration, Runnable notification) {
+        try {
+            notification.run();
+        } catch (RuntimeException e) {
+            logger.warn("EWPESmart: failed to notify handler of device {} due to {}", registration.device.getId(),
+                    e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ewpesmart.internal.device;
+
+import java.util.BitSet;
+
+/**
+ * The EWPEStatusSnapshot holds the column values of a single status response
+ * received from the Air Conditioner. Values are stored in an int array indexed
+ * by {@link EWPEStatusColumn} ordinal, together with a bitmask of the columns
+ * the device reported, so lookups neither allocate nor box. The changed mask
+ * marks the columns that differ from the status previously handed out by the device.
+ * A restored snapshot holds the last known state persisted before a restart and is
+ * replaced as soon as the device reports its live status.
+ *
+ * @author Pawel Bogut - Initial contribution
+ */
+public class EWPEStatusSnapshot {
+    private final int[] values;
+    private final long presentMask;
+    private final long changedMask;
+    private final boolean restored;
+
+    private EWPEStatusSnapshot(int[] values, long presentMask, long changedMask) {
+        this(values, presentMask, changedMask, false);
+    }
+
+    private EWPEStatusSnapshot(int[] values, long presentMask, long changedMask, boolean restored) {
+        this.values = values;
+        this.presentMask = presentMask;
+        this.changedMask = changedMask;
+        this.restored = restored;
+    }
+
+    /**
+     * Creates a snapshot of persisted values, all reported as changed.
+     *
+     * @param values the values indexed by {@link EWPEStatusColumn} ordinal
+     */
+    static EWPEStatusSnapshot restore(int[] values, long presentMask) {
+        return new EWPEStatusSnapshot(values, presentMask, presentMask, true);
+    }
+
+    /**
+     * Builds a snapshot from the cols and dat arrays of a status response as decoded by
+     * the message codec. Unknown columns and null values are skipped.
+     *
+     * @param nulls the positions of null values in dat, or null if there are none
+     */
+    public static EWPEStatusSnapshot fromResponse(String[] cols, int[] dat, BitSet nulls) {
+        int[] values = new int[EWPEStatusColumn.count()];
+        long presentMask = 0;
+        if (cols != null && dat != null) {
+            for (int i = 0; i < cols.length && i < dat.length; i++) {
+                EWPEStatusColumn column = EWPEStatusColumn.fromColumnName(cols[i]);
+                if (column != null && (nulls == null || !nulls.get(i))) {
+                    values[column.ordinal()] = dat[i];
+                    presentMask |= column.getMask();
+                }
+            }
+        }
+        return new EWPEStatusSnapshot(values, presentMask, presentMask);
+    }
+
+    /**
+     * Returns whether the values were persisted before a restart rather than reported
+     * by the device.
+     */
+    public boolean isRestored() {
+        return restored;
+    }
+
+    public boolean isPresent(EWPEStatusColumn column) {
+        return (presentMask & column.getMask()) != 0;
+    }
+
+    /**
+     * Returns the value of the given column, or 0 if the device did not report it.
+     */
+    public int get(EWPEStatusColumn column) {
+        return values[column.ordinal()];
+    }
+
+    public long getPresentMask() {
+        return presentMask;
+    }
+
+    /**
+     * Returns the bitmask of columns that changed, see {@link EWPEStatusColumn#getMask()}.
+     */
+    public long getChangedMask() {
+        return changedMask;
+    }
+
+    /**
+     * Returns the bitmask of columns whose value or presence differs from the previous snapshot.
+     * All present columns are reported as changed if there is no previous snapshot.
+     */
+    public long diff(EWPEStatusSnapshot previous) {
+        if (previous == null) {
+            return presentMask;
+        }
+        long changed = presentMask ^ previous.presentMask;
+        for (long bits = presentMask & previous.presentMask; bits != 0; bits &= bits - 1) {
+            int index = Long.numberOfTrailingZeros(bits);
+            if (values[index] != previous.values[index]) {
+                changed |= 1L << index;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns a snapshot with the same values and the given changed mask.
+     */
+    public EWPEStatusSnapshot withChangedMask(long mask) {
+        return new EWPEStatusSnapshot(values, presentMask, mask, restored);
+    }
+
+    /**
+     * Returns a copy of this snapshot with the given column set to the value.
+     */
+    public EWPEStatusSnapshot with(EWPEStatusColumn column, int value) {
+        int[] newValues = values.clone();
+        newValues[column.ordinal()] = value;
+        return new EWPEStatusSnapshot(newValues, presentMask | column.getMask(), changedMask, restored);
+    }
+}
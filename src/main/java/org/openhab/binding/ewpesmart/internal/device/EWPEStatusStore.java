@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ewpesmart.internal.device;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The EWPEStatusStore persists the last status of each Air Conditioner in a small
+ * binary file, so it can be shown right after a restart until the device reports its
+ * live status. Values are stored by column name, so the file survives changes to
+ * {@link EWPEStatusColumn}.
+ *
+ * @author Pawel Bogut - Initial contribution
+ */
+public class EWPEStatusStore {
+
+    private static final int MAGIC = 0x45575053; // "EWPS"
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".status";
+
+    private final Logger logger = LoggerFactory.getLogger(EWPEStatusStore.class);
+    private final File directory;
+
+    public EWPEStatusStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the persisted status of the given device as a restored snapshot.
+     *
+     * @return the snapshot, or null if none was persisted
+     */
+    public EWPEStatusSnapshot load(String id) {
+        File file = getFile(id);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                logger.debug("EWPESmart: ignoring status file {} of an unknown format", file);
+                return null;
+            }
+            int[] values = new int[EWPEStatusColumn.count()];
+            long presentMask = 0;
+            for (int count = in.readUnsignedByte(); count > 0; count--) {
+                EWPEStatusColumn column = EWPEStatusColumn.fromColumnName(in.readUTF());
+                int value = in.readInt();
+                if (column != null) {
+                    values[column.ordinal()] = value;
+                    presentMask |= column.getMask();
+                }
+            }
+            return EWPEStatusSnapshot.restore(values, presentMask);
+        } catch (IOException e) {
+            logger.debug("EWPESmart: failed to read status file {} due to {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Persists the given status of a device, replacing the previous one.
+     */
+    public void save(String id, EWPEStatusSnapshot status) {
+        File file = getFile(id);
+        File temporary = new File(directory, file.getName() + ".tmp");
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeByte(Long.bitCount(status.getPresentMask()));
+                for (long bits = status.getPresentMask(); bits != 0; bits &= bits - 1) {
+                    EWPEStatusColumn column = EWPEStatusColumn.fromOrdinal(Long.numberOfTrailingZeros(bits));
+                    out.writeUTF(column.getColumnName());
+                    out.writeInt(status.get(column));
+                }
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.debug("EWPESmart: failed to write status file {} due to {}", file, e.getMessage());
+        }
+    }
+
+    public void remove(String id) {
+        File file = getFile(id);
+        if (file.isFile() && !file.delete()) {
+            logger.debug("EWPESmart: failed to delete status file {}", file);
+        }
+    }
+
+    private File getFile(String id) {
+        // thing UIDs contain colons, which are not valid in every file system
+        return new File(directory, id.replace(':', '_') + SUFFIX);
+    }
+}
@@ -16,13 +16,17 @@ import static org.openhab.binding.ewpesmart.internal.EWPESmartBindingConstants.*
 
 import org.openhab.binding.ewpesmart.internal.device.EWPEDevice;
 import org.openhab.binding.ewpesmart.internal.device.EWPEDeviceFinder;
+import org.openhab.binding.ewpesmart.internal.device.EWPEDeviceRegistry;
+import org.openhab.binding.ewpesmart.internal.network.EWPESubnet;
+import org.openhab.binding.ewpesmart.internal.network.EWPETransport;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
@@ -30,6 +34,7 @@ import org.eclipse.smarthome.config.discovery.AbstractDiscoveryService;
 import org.eclipse.smarthome.config.discovery.DiscoveryService;
 import org.eclipse.smarthome.config.discovery.DiscoveryResult;
 import org.eclipse.smarthome.config.discovery.DiscoveryResultBuilder;
+import org.eclipse.smarthome.core.common.ThreadPoolManager;
 import org.eclipse.smarthome.core.thing.ThingTypeUID;
 import org.eclipse.smarthome.core.thing.ThingUID;
 import org.slf4j.Logger;
@@ -42,6 +47,8 @@ import java.util.Iterator;
 
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
 
 /**
  * The {@link EWPESmartDiscovery} is responsible for discovering supported
@@ -54,22 +61,65 @@ import org.osgi.service.component.annotations.Component;
 public class EWPESmartDiscovery extends AbstractDiscoveryService {
     private final Logger logger = LoggerFactory.getLogger(EWPESmartDiscovery.class);
 
-    private static final int SEARCH_TIME = 10;
+    private static final int SEARCH_TIME = 20;
 
     private @Nullable EWPEDeviceFinder deviceFinder = null;
-    private @Nullable DatagramSocket clientSocket = null;
+    private @Nullable EWPETransport transport = null;
+    private @Nullable EWPESubnet sweepSubnet = null;
+    private @Nullable EWPEDeviceRegistry deviceRegistry = null;
+    private @Nullable ScheduledFuture<?> backgroundJob = null;
+    private volatile long lastSweep = 0;
 
-    @Activate
     public EWPESmartDiscovery () {
         super(SUPPORTED_THING_TYPES_UIDS, SEARCH_TIME, true);
+    }
+
+    @Override
+    @Activate
+    protected void activate(@Nullable Map<String, @Nullable Object> configProperties) {
+        super.activate(configProperties);
+        applyConfig(configProperties);
+    }
+
+    @Override
+    @Modified
+    protected void modified(@Nullable Map<String, @Nullable Object> configProperties) {
+        super.modified(configProperties);
+        applyConfig(configProperties);
+    }
+
+    private void applyConfig(@Nullable Map<String, @Nullable Object> configProperties) {
+        Object subnet = configProperties == null ? null : configProperties.get(CONFIG_SWEEP_SUBNET);
+        sweepSubnet = null;
+        if (subnet == null || subnet.toString().trim().isEmpty()) {
+            return;
+        }
         try {
-            clientSocket = new DatagramSocket();
-            clientSocket.setSoTimeout(DATAGRAM_SOCKET_TIMEOUT);
-        } catch (Exception e ) {
-            logger.error("EWPESmart: Could not create clientSocket {}", e.getMessage());
+            sweepSubnet = EWPESubnet.parse(subnet.toString());
+            logger.debug("EWPESmart: discovery sweeps subnet {}", sweepSubnet);
+        } catch (IllegalArgumentException e) {
+            logger.warn("EWPESmart: not sweeping subnet: {}", e.getMessage());
         }
     }
 
+    @Reference
+    protected void setTransport(EWPETransport transport) {
+        this.transport = transport;
+    }
+
+    protected void unsetTransport(EWPETransport transport) {
+        this.transport = null;
+    }
+
+    @Reference
+    protected void setDeviceRegistry(EWPEDeviceRegistry deviceRegistry) {
+        this.deviceRegistry = deviceRegistry;
+    }
+
+    protected void unsetDeviceRegistry(EWPEDeviceRegistry deviceRegistry) {
+        this.deviceRegistry = null;
+    }
+
     @Override
     public Set<ThingTypeUID> getSupportedThingTypes() {
         return SUPPORTED_THING_TYPES_UIDS;
@@ -77,12 +127,37 @@ public class EWPESmartDiscovery extends AbstractDiscoveryService {
 
     @Override
     public void startScan() {
-        search();
+        search(false);
     }
 
-    private void search() {
+    @Override
+    protected void startBackgroundDiscovery() {
+        ScheduledFuture<?> job = backgroundJob;
+        if (job == null || job.isCancelled()) {
+            backgroundJob = scheduler.scheduleWithFixedDelay(() -> search(true), 0, BACKGROUND_DISCOVERY_INTERVAL,
+                    TimeUnit.MILLISECONDS);
+            logger.debug("EWPESmart: started background discovery");
+        }
+    }
+
+    @Override
+    protected void stopBackgroundDiscovery() {
+        ScheduledFuture<?> job = backgroundJob;
+        if (job != null) {
+            job.cancel(true);
+            backgroundJob = null;
+            logger.debug("EWPESmart: stopped background discovery");
+        }
+    }
+
+    /**
+     * @param background whether to report only devices that are new or changed since
+     *            they were last seen, rather than every device found
+     */
+    private void search(boolean background) {
         try {
-            // Create a new Datagram socket with a specified timeout
+            // Collect the broadcast addresses of all interfaces, so they are scanned at once
+            List<InterfaceAddress> interfaces = new ArrayList<>();
             Enumeration<NetworkInterface> en = NetworkInterface.getNetworkInterfaces();
 
             while (en.hasMoreElements()) {
@@ -98,25 +173,86 @@ public class EWPESmartDiscovery extends AbstractDiscoveryService {
                         continue;
                     }
                     logger.trace("EWPESmart: Scan for devices on {} broadcast address", ia.getBroadcast());
-                    searchNetwork(ia.getBroadcast());
+                    interfaces.add(ia);
                 }
             }
+            searchNetworks(interfaces, background);
+
+            // Sweep on this thread after the broadcast, so the search never waits for a task
+            // queued behind it. Background runs sweep far less often, as a sweep asks every host.
+            EWPESubnet subnet = sweepSubnet;
+            long now = System.currentTimeMillis();
+            boolean sweepNow = subnet != null && (!background || now - lastSweep >= BACKGROUND_SWEEP_INTERVAL);
+            if (sweepNow) {
+                lastSweep = now;
+            }
+            if (subnet != null && sweepNow) {
+                sweepNetwork(subnet, background);
+            }
+        } catch (InterruptedException e) {
+            // background discovery was stopped, the devices not seen are not gone
+            logger.debug("EWPESmart: scanning for devices was interrupted");
+            Thread.currentThread().interrupt();
+            return;
         } catch (Exception e) {
             logger.error("EWPESmart: Error while scanning for devices {}", e.getMessage());
         }
+
+        EWPEDeviceRegistry registry = deviceRegistry;
+        if (registry != null) {
+            // devices only the sweep finds must outlive the time between two sweeps
+            long ttl = sweepSubnet == null ? DISCOVERY_DEVICE_TTL
+                    : Math.max(DISCOVERY_DEVICE_TTL, 2L * BACKGROUND_SWEEP_INTERVAL);
+            for (EWPEDevice device : registry.expire(ttl)) {
+                logger.debug("EWPESmart: device {} was not seen for a while", getDeviceName(device));
+                thingRemoved(getThingUID(device));
+            }
+        }
     }
 
-    private void searchNetwork(InetAddress broadcastIp) throws Exception {
-        // Firstly, lets find all Gree Airconditioners on the network
-        deviceFinder = new EWPEDeviceFinder(broadcastIp);
-        deviceFinder.Scan(clientSocket);
+    /**
+     * Records a device that answered a scan and reports it unless it is known already and
+     * only the background discovery saw it again.
+     */
+    private void deviceFound(EWPEDevice device, boolean background) {
+        EWPEDeviceRegistry registry = deviceRegistry;
+        EWPEDeviceRegistry.Change change = registry == null ? EWPEDeviceRegistry.Change.NEW
+                : registry.update(device);
+        if (background && change == EWPEDeviceRegistry.Change.UNCHANGED) {
+            return;
+        }
+        logger.trace("EWPESmart: Discovered thing {} ({})", getDeviceName(device), change);
+        thingDiscovered(buildDiscoveryResult(device));
+    }
+
+    private void searchNetworks(List<InterfaceAddress> interfaces, boolean background) throws Exception {
+        if (interfaces.isEmpty()) {
+            return;
+        }
+        // Firstly, lets find all Gree Airconditioners on the networks
+        EWPEDeviceFinder finder = new EWPEDeviceFinder();
+        deviceFinder = finder;
+        finder.Scan(transport, interfaces);
+
+        for (HashMap.Entry<String, EWPEDevice> e : finder.GetDevices().entrySet()) {
+            deviceFound(e.getValue(), background);
+        }
+    }
 
-        for (HashMap.Entry<String, EWPEDevice> e : deviceFinder.GetDevices().entrySet()) {
-            EWPEDevice device = e.getValue();
-            DiscoveryResult discoveryResult = buildDiscoveryResult(device);
+    private void sweepNetwork(EWPESubnet subnet, boolean background) throws InterruptedException {
+        try {
+            EWPEDeviceFinder finder = new EWPEDeviceFinder();
+            // the sweep blocks this thread, so the replies are decrypted on the discovery pool
+            finder.Sweep(transport, subnet, ThreadPoolManager.getPool(DISCOVERY_THREAD_POOL_NAME));
+            logger.debug("EWPESmart: found {} devices sweeping subnet {}", finder.GetScannedDeviceCount(), subnet);
 
-            logger.trace("EWPESmart: Discovered thing {}", getDeviceName(device));
-            thingDiscovered(discoveryResult);
+            for (EWPEDevice device : finder.GetDevices().values()) {
+                deviceFound(device, background);
+            }
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.warn("EWPESmart: Error while sweeping subnet {}: {}", subnet, e.getMessage());
         }
     }
 
@@ -12,12 +12,10 @@
  */
 package org.openhab.binding.ewpesmart.internal.encryption;
 
-import java.security.Key;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 
-import javax.crypto.Cipher;
-import javax.crypto.spec.SecretKeySpec;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,20 +39,17 @@ public class Crypto {
     }
 
     public static String decryptPack(byte[] keyarray, String message) throws Exception {
+        return decryptPack(CryptoKey.forKey(keyarray), message);
+    }
+
+    public static String decryptPack(CryptoKey key, String message) throws Exception {
         String descrytpedMessage = null;
         try {
-            Key key = new SecretKeySpec(keyarray, "AES");
-            // BASE64Decoder decoder = new BASE64Decoder();
             Base64.Decoder decoder = Base64.getDecoder();
-            // Decoder decoder = new Decoder();
             byte[] imageByte = decoder.decode(message);
-            // byte[] imageByte = decoder.decodeBuffer(message);
+            byte[] bytePlainText = key.decrypt(imageByte);
 
-            Cipher aesCipher = Cipher.getInstance("AES/ECB/PKCS5Padding");
-            aesCipher.init(Cipher.DECRYPT_MODE, key);
-            byte[] bytePlainText = aesCipher.doFinal(imageByte);
-
-            descrytpedMessage = new String(bytePlainText);
+            descrytpedMessage = new String(bytePlainText, StandardCharsets.UTF_8);
         } catch (Exception ex) {
             logger.debug("EWPEair failed to decrypt the recieved data due to {} ", ex.getMessage());
         }
@@ -62,18 +57,47 @@ public class Crypto {
         return descrytpedMessage;
     }
 
+    /**
+     * Decrypts the Base64 encoded pack at data[offset, offset + length), so the pack
+     * does not have to be copied into a String first. Returns null if the pack could
+     * not be decrypted with the given key.
+     */
+    public static ByteBuffer decryptPack(CryptoKey key, byte[] data, int offset, int length) {
+        try {
+            ByteBuffer cipherText = Base64.getDecoder().decode(ByteBuffer.wrap(data, offset, length));
+            return ByteBuffer.wrap(key.decrypt(cipherText.array(), cipherText.arrayOffset() + cipherText.position(),
+                    cipherText.remaining()));
+        } catch (Exception ex) {
+            logger.debug("EWPEair failed to decrypt the recieved data due to {} ", ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Encrypts the given plain text and returns it Base64 encoded, or null if it could not
+     * be encrypted.
+     */
+    public static byte[] encryptPack(CryptoKey key, byte[] plainText) {
+        try {
+            return Base64.getEncoder().encode(key.encrypt(plainText, 0, plainText.length));
+        } catch (Exception ex) {
+            logger.debug("EWPEair failed to encrypt the data to send to device due to {} ", ex.getMessage());
+            return null;
+        }
+    }
+
     public static String encryptPack(byte[] keyarray, String message) throws Exception {
+        return encryptPack(CryptoKey.forKey(keyarray), message);
+    }
+
+    public static String encryptPack(CryptoKey key, String message) throws Exception {
         String encrytpedMessage = null;
 
         try {
-            Key key = new SecretKeySpec(keyarray, "AES");
-            Cipher aesCipher = Cipher.getInstance("AES/ECB/PKCS5Padding");
-            aesCipher.init(Cipher.ENCRYPT_MODE, key);
-            byte[] bytePlainText = aesCipher.doFinal(message.getBytes());
+            byte[] bytePlainText = key.encrypt(message.getBytes(StandardCharsets.UTF_8));
 
             Base64.Encoder newencoder = Base64.getEncoder();
             encrytpedMessage = new String(newencoder.encode(bytePlainText));
-            encrytpedMessage = encrytpedMessage.substring(0, encrytpedMessage.length());
         } catch (Exception ex) {
             logger.debug("EWPEair failed to encrypt the data to send to device due to {} ", ex.getMessage());
         }
@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ewpesmart.internal.encryption;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The CryptoKey holds the AES ciphers for one key. Every thread gets its own
+ * encrypt and decrypt {@link Cipher}, which is looked up and initialized with the
+ * key once and then reused for every message, as an AES/ECB cipher returns to its
+ * initialized state after each doFinal.
+ *
+ * Keys are cached for the lifetime of the binding, so the general key and the key
+ * of every bound device are expanded once per thread.
+ *
+ * @author Pawel Bogut - Initial contribution
+ */
+public class CryptoKey {
+
+    private static final String TRANSFORMATION = "AES/ECB/PKCS5Padding";
+    private static final Map<String, CryptoKey> KEYS = new ConcurrentHashMap<>();
+
+    private final String key;
+    private final SecretKeySpec keySpec;
+    private final ThreadLocal<Cipher> encryptCipher = new ThreadLocal<>();
+    private final ThreadLocal<Cipher> decryptCipher = new ThreadLocal<>();
+
+    private CryptoKey(String key) {
+        this.key = key;
+        this.keySpec = new SecretKeySpec(key.getBytes(StandardCharsets.ISO_8859_1), "AES");
+    }
+
+    /**
+     * Returns the cached cipher holder for the given key.
+     */
+    public static CryptoKey forKey(String key) {
+        return KEYS.computeIfAbsent(key, CryptoKey::new);
+    }
+
+    public static CryptoKey forKey(byte[] key) {
+        return forKey(new String(key, StandardCharsets.ISO_8859_1));
+    }
+
+    public static CryptoKey general() {
+        return forKey(Crypto.GetAESGeneralKey());
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public byte[] encrypt(byte[] plainText) throws GeneralSecurityException {
+        return doFinal(encryptCipher, Cipher.ENCRYPT_MODE, plainText);
+    }
+
+    public byte[] encrypt(byte[] plainText, int offset, int length) throws GeneralSecurityException {
+        Cipher cipher = getCipher(encryptCipher, Cipher.ENCRYPT_MODE);
+        try {
+            return cipher.doFinal(plainText, offset, length);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            encryptCipher.remove();
+            throw e;
+        }
+    }
+
+    public byte[] decrypt(byte[] cipherText) throws GeneralSecurityException {
+        return doFinal(decryptCipher, Cipher.DECRYPT_MODE, cipherText);
+    }
+
+    public byte[] decrypt(byte[] cipherText, int offset, int length) throws GeneralSecurityException {
+        Cipher cipher = getCipher(decryptCipher, Cipher.DECRYPT_MODE);
+        try {
+            return cipher.doFinal(cipherText, offset, length);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            decryptCipher.remove();
+            throw e;
+        }
+    }
+
+    private Cipher getCipher(ThreadLocal<Cipher> cipherHolder, int mode) throws GeneralSecurityException {
+        Cipher cipher = cipherHolder.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(mode, keySpec);
+            cipherHolder.set(cipher);
+        }
+        return cipher;
+    }
+
+    private byte[] doFinal(ThreadLocal<Cipher> cipherHolder, int mode, byte[] input)
+            throws GeneralSecurityException {
+        Cipher cipher = getCipher(cipherHolder, mode);
+        try {
+            return cipher.doFinal(input);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            // do not rely on the state of a cipher that failed, e.g. on a bad padding
+            cipherHolder.remove();
+            throw e;
+        }
+    }
+}
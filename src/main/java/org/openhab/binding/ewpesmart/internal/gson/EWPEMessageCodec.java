@@ -0,0 +1,590 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ewpesmart.internal.gson;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import com.google.gson.JsonParseException;
+
+/**
+ *
+ * The EWPEMessageCodec writes and reads the small fixed set of messages exchanged
+ * with the Air Conditioner without going through Gson reflection. Requests are
+ * written straight into byte arrays and packs are read straight from the decrypted
+ * bytes, decoding "cols", "dat", "opt", "p" and "val" into arrays. Column and option
+ * names are matched against a list of known names, so decoding a status pack does not
+ * allocate a String per column.
+ *
+ * @author Pawel Bogut - Initial contribution
+ */
+public class EWPEMessageCodec {
+
+    private static final byte[] PACK_FIELD = "\"pack\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SCAN_REQUEST = "{\"t\":\"scan\"}".getBytes(StandardCharsets.UTF_8);
+    private static final String[] NO_NAMES = new String[0];
+    // field names and pack types, matched like the known names to avoid allocating them
+    private static final String[] PACK_NAMES = { "t", "mac", "key", "r", "cols", "dat", "opt", "p", "val",
+            "bindok", "res" };
+
+    private EWPEMessageCodec() {
+    }
+
+    public static byte[] encodeScanRequest() {
+        return SCAN_REQUEST.clone();
+    }
+
+    public static byte[] encodeBindPack(String mac) {
+        Output out = new Output(64);
+        out.raw("{\"mac\":").string(mac).raw(",\"t\":\"bind\",\"uid\":0}");
+        return out.toByteArray();
+    }
+
+    public static byte[] encodeStatusPack(String mac, String[] cols) {
+        Output out = new Output(32 + cols.length * 12);
+        out.raw("{\"cols\":").strings(cols).raw(",\"mac\":").string(mac).raw(",\"t\":\"status\"}");
+        return out.toByteArray();
+    }
+
+    public static byte[] encodeCommandPack(String[] opt, int[] p) {
+        Output out = new Output(32 + opt.length * 16);
+        out.raw("{\"opt\":").strings(opt).raw(",\"p\":[");
+        for (int i = 0; i < p.length; i++) {
+            if (i > 0) {
+                out.raw(",");
+            }
+            out.number(p[i]);
+        }
+        out.raw("],\"t\":\"cmd\"}");
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the "pack" envelope around an already encrypted and Base64 encoded pack.
+     *
+     * @param tcid the MAC of the target device, or null to leave it out
+     */
+    public static byte[] encodeRequest(String tcid, int i, byte[] pack) {
+        Output out = new Output(64 + pack.length);
+        out.raw("{\"cid\":\"app\",\"i\":").number(i).raw(",\"t\":\"pack\",\"uid\":0");
+        if (tcid != null) {
+            out.raw(",\"tcid\":").string(tcid);
+        }
+        out.raw(",\"pack\":\"").bytes(pack).raw("\"}");
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the offset of the "pack" value in the raw envelope, or -1 if the value
+     * cannot be located without a full JSON parse.
+     */
+    public static int indexOfPackValue(byte[] data, int start, int end) {
+        outer: for (int i = start; i <= end - PACK_FIELD.length; i++) {
+            for (int j = 0; j < PACK_FIELD.length; j++) {
+                if (data[i + j] != PACK_FIELD[j]) {
+                    continue outer;
+                }
+            }
+            // only a key is followed by a colon, "pack" is also the value of "t"
+            int k = skipWhitespace(data, i + PACK_FIELD.length, end);
+            if (k >= end || data[k] != ':') {
+                continue outer;
+            }
+            k = skipWhitespace(data, k + 1, end);
+            return k < end && data[k] == '"' ? k + 1 : -1;
+        }
+        return -1;
+    }
+
+    private static int skipWhitespace(byte[] data, int start, int end) {
+        int i = start;
+        while (i < end && isWhitespace(data[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the offset of the closing quote of the "pack" value, or -1 if the value
+     * is not terminated or contains escapes.
+     */
+    public static int indexOfPackValueEnd(byte[] data, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (data[i] == '"') {
+                return i;
+            }
+            if (data[i] == '\\') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Decodes a decrypted pack. A null value counts as absent: a null "r" leaves it 0,
+     * and the positions of null elements of "dat", "p" and "val" are recorded in the
+     * matching null set of the pack.
+     *
+     * @param names known column and option names, returned instead of new strings when matched
+     * @throws JsonParseException if the pack is not a valid JSON object
+     */
+    public static EWPEPack decodePack(byte[] data, int offset, int length, String[] names) {
+        Input in = new Input(data, offset, offset + length, names == null ? NO_NAMES : names);
+        EWPEPack pack = new EWPEPack();
+        in.expect('{');
+        if (!in.consume('}')) {
+            do {
+                String field = in.readName();
+                in.expect(':');
+                switch (field) {
+                    case "t":
+                        pack.t = in.readString();
+                        break;
+                    case "mac":
+                        pack.mac = in.readString();
+                        break;
+                    case "key":
+                        pack.key = in.readString();
+                        break;
+                    case "r":
+                        if (!in.consumeNull()) {
+                            pack.r = in.readInt();
+                        }
+                        break;
+                    case "cols":
+                        pack.cols = in.readStrings();
+                        break;
+                    case "dat":
+                        pack.datNulls = new BitSet();
+                        pack.dat = in.readInts(pack.datNulls);
+                        break;
+                    case "opt":
+                        pack.opt = in.readStrings();
+                        break;
+                    case "p":
+                        pack.pNulls = new BitSet();
+                        pack.p = in.readInts(pack.pNulls);
+                        break;
+                    case "val":
+                        pack.valNulls = new BitSet();
+                        pack.val = in.readInts(pack.valNulls);
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            } while (in.consume(','));
+            in.expect('}');
+        }
+        return pack;
+    }
+
+    private static boolean isWhitespace(byte c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+    /**
+     * Growable byte array the requests are written to.
+     */
+    private static class Output {
+        private byte[] buffer;
+        private int length = 0;
+
+        Output(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        private void ensure(int additional) {
+            if (length + additional > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + additional));
+            }
+        }
+
+        /**
+         * Appends ASCII text as is.
+         */
+        Output raw(String text) {
+            ensure(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                buffer[length++] = (byte) text.charAt(i);
+            }
+            return this;
+        }
+
+        Output bytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+            return this;
+        }
+
+        Output number(int value) {
+            return raw(Integer.toString(value));
+        }
+
+        Output string(String value) {
+            if (value == null) {
+                return raw("null");
+            }
+            raw("\"");
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    raw("\\").raw(String.valueOf(c));
+                } else if (c < 0x20) {
+                    raw(String.format("\\u%04x", (int) c));
+                } else if (c < 0x80) {
+                    ensure(1);
+                    buffer[length++] = (byte) c;
+                } else {
+                    int charCount = Character.isHighSurrogate(c) && i + 1 < value.length() ? 2 : 1;
+                    bytes(value.substring(i, i + charCount).getBytes(StandardCharsets.UTF_8));
+                    i += charCount - 1;
+                }
+            }
+            return raw("\"");
+        }
+
+        Output strings(String[] values) {
+            raw("[");
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    raw(",");
+                }
+                string(values[i]);
+            }
+            return raw("]");
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, length);
+        }
+    }
+
+    /**
+     * Minimal JSON reader over the bytes of a decrypted pack.
+     */
+    private static class Input {
+        private final byte[] data;
+        private final int end;
+        private final String[] names;
+        private int position;
+
+        Input(byte[] data, int start, int end, String[] names) {
+            this.data = data;
+            this.position = start;
+            this.end = end;
+            this.names = names;
+        }
+
+        private JsonParseException error(String message) {
+            return new JsonParseException(message + " at offset " + position);
+        }
+
+        private byte peek() {
+            while (position < end && isWhitespace(data[position])) {
+                position++;
+            }
+            if (position >= end) {
+                throw error("Unexpected end of pack");
+            }
+            return data[position];
+        }
+
+        boolean consume(char c) {
+            if (peek() == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char c) {
+            if (!consume(c)) {
+                throw error("Expected '" + c + "'");
+            }
+        }
+
+        private boolean consumeLiteral(String literal) {
+            if (position + literal.length() > end) {
+                return false;
+            }
+            for (int i = 0; i < literal.length(); i++) {
+                if (data[position + i] != literal.charAt(i)) {
+                    return false;
+                }
+            }
+            position += literal.length();
+            return true;
+        }
+
+        boolean consumeNull() {
+            return peek() == 'n' && consumeLiteral("null");
+        }
+
+        /**
+         * Reads the name of an object member, which unlike a string value cannot be null.
+         */
+        String readName() {
+            if (peek() != '"') {
+                throw error("Expected a member name");
+            }
+            return readString();
+        }
+
+        String readString() {
+            if (consumeNull()) {
+                return null;
+            }
+            expect('"');
+            int start = position;
+            while (position < end && data[position] != '"' && data[position] != '\\') {
+                position++;
+            }
+            if (position >= end) {
+                throw error("Unterminated string");
+            }
+            if (data[position] == '"') {
+                int length = position - start;
+                position++;
+                String name = findName(start, length);
+                return name != null ? name : new String(data, start, length, StandardCharsets.UTF_8);
+            }
+            return readEscapedString(start);
+        }
+
+        private String findName(int start, int length) {
+            String name = findName(PACK_NAMES, start, length);
+            return name != null ? name : findName(names, start, length);
+        }
+
+        private String findName(String[] candidates, int start, int length) {
+            outer: for (String name : candidates) {
+                if (name.length() != length) {
+                    continue;
+                }
+                for (int i = 0; i < length; i++) {
+                    if (data[start + i] != name.charAt(i)) {
+                        continue outer;
+                    }
+                }
+                return name;
+            }
+            return null;
+        }
+
+        private String readEscapedString(int start) {
+            StringBuilder builder = new StringBuilder(new String(data, start, position - start,
+                    StandardCharsets.UTF_8));
+            int chunk = position;
+            while (true) {
+                if (position >= end) {
+                    throw error("Unterminated string");
+                }
+                byte c = data[position];
+                if (c == '"') {
+                    builder.append(new String(data, chunk, position - chunk, StandardCharsets.UTF_8));
+                    position++;
+                    return builder.toString();
+                }
+                if (c != '\\') {
+                    position++;
+                    continue;
+                }
+                builder.append(new String(data, chunk, position - chunk, StandardCharsets.UTF_8));
+                if (position + 1 >= end) {
+                    throw error("Unterminated escape");
+                }
+                byte escaped = data[position + 1];
+                position += 2;
+                switch (escaped) {
+                    case 'b':
+                        builder.append('\b');
+                        break;
+                    case 'f':
+                        builder.append('\f');
+                        break;
+                    case 'n':
+                        builder.append('\n');
+                        break;
+                    case 'r':
+                        builder.append('\r');
+                        break;
+                    case 't':
+                        builder.append('\t');
+                        break;
+                    case 'u':
+                        if (position + 4 > end) {
+                            throw error("Unterminated escape");
+                        }
+                        try {
+                            builder.append((char) Integer.parseInt(
+                                    new String(data, position, 4, StandardCharsets.US_ASCII), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Invalid unicode escape");
+                        }
+                        position += 4;
+                        break;
+                    default:
+                        builder.append((char) escaped);
+                        break;
+                }
+                chunk = position;
+            }
+        }
+
+        int readInt() {
+            boolean negative = peek() == '-';
+            if (negative) {
+                position++;
+            }
+            int start = position;
+            long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+            long value = 0;
+            while (position < end && data[position] >= '0' && data[position] <= '9') {
+                value = value * 10 + (data[position++] - '0');
+                if (value > limit) {
+                    throw error("Number out of range");
+                }
+            }
+            if (position == start) {
+                throw error("Expected a number");
+            }
+            if (position < end && (data[position] == '.' || data[position] == 'e' || data[position] == 'E')) {
+                // not sent by the devices, but truncate like Gson does for an int field
+                int numberStart = negative ? start - 1 : start;
+                skipNumber();
+                double number;
+                try {
+                    number = Double.parseDouble(
+                            new String(data, numberStart, position - numberStart, StandardCharsets.US_ASCII));
+                } catch (NumberFormatException e) {
+                    throw error("Invalid number");
+                }
+                if (!(number > Integer.MIN_VALUE - 1.0 && number < Integer.MAX_VALUE + 1.0)) {
+                    throw error("Number out of range");
+                }
+                return (int) number;
+            }
+            return (int) (negative ? -value : value);
+        }
+
+        private void skipNumber() {
+            while (position < end) {
+                byte c = data[position];
+                if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                    position++;
+                } else {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Counts the elements of the array at the current position without consuming it.
+         */
+        private int countElements() {
+            int start = position;
+            int count = 0;
+            expect('[');
+            if (!consume(']')) {
+                do {
+                    skipValue();
+                    count++;
+                } while (consume(','));
+                expect(']');
+            }
+            position = start;
+            return count;
+        }
+
+        String[] readStrings() {
+            if (consumeNull()) {
+                return null;
+            }
+            String[] values = new String[countElements()];
+            expect('[');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    expect(',');
+                }
+                values[i] = readString();
+            }
+            expect(']');
+            return values;
+        }
+
+        /**
+         * @param nulls receives the positions of null elements, which are left 0
+         */
+        int[] readInts(BitSet nulls) {
+            if (consumeNull()) {
+                return null;
+            }
+            int[] values = new int[countElements()];
+            expect('[');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    expect(',');
+                }
+                if (consumeNull()) {
+                    nulls.set(i);
+                } else {
+                    values[i] = readInt();
+                }
+            }
+            expect(']');
+            return values;
+        }
+
+        void skipValue() {
+            byte c = peek();
+            switch (c) {
+                case '"':
+                    readString();
+                    break;
+                case '{':
+                    position++;
+                    if (!consume('}')) {
+                        do {
+                            readName();
+                            expect(':');
+                            skipValue();
+                        } while (consume(','));
+                        expect('}');
+                    }
+                    break;
+                case '[':
+                    position++;
+                    if (!consume(']')) {
+                        do {
+                            skipValue();
+                        } while (consume(','));
+                        expect(']');
+                    }
+                    break;
+                default:
+                    if (consumeLiteral("true") || consumeLiteral("false") || consumeLiteral("null")) {
+                        break;
+                    }
+                    int start = position;
+                    skipNumber();
+                    if (position == start) {
+                        throw error("Unexpected character '" + (char) c + "'");
+                    }
+                    break;
+            }
+        }
+    }
+}
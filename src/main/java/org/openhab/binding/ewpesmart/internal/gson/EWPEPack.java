@@ -0,0 +1,41 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ewpesmart.internal.gson;
+
+import java.util.BitSet;
+
+/**
+ *
+ * The EWPEPack class holds the values of a decrypted pack returned from the
+ * Air Conditioner as decoded by {@link EWPEMessageCodec}. Only the fields of
+ * "bindok", "dat" and "res" packs are kept, numeric arrays are decoded into
+ * primitive arrays. The positions of null elements of a numeric array are kept
+ * in the matching null set.
+ *
+ * @author Pawel Bogut - Initial contribution
+ */
+public class EWPEPack {
+
+    public String t = null;
+    public String mac = null;
+    public String key = null;
+    public int r = 0;
+    public String[] cols = null;
+    public int[] dat = null;
+    public BitSet datNulls = null;
+    public String[] opt = null;
+    public int[] p = null;
+    public BitSet pNulls = null;
+    public int[] val = null;
+    public BitSet valNulls = null;
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ewpesmart.internal.network;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link EWPEBufferPool} hands out datagram buffers of a fixed size, so received
+ * datagrams can be kept, e.g. to pass them to another thread, without allocating a new
+ * buffer for each of them. At most a fixed number of released buffers is retained.
+ *
+ * @author Pawel Bogut - Initial contribution
+ */
+@NonNullByDefault
+public class EWPEBufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final Queue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    public EWPEBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public byte[] acquire() {
+        byte[] buffer = buffers.poll();
+        if (buffer == null) {
+            return new byte[bufferSize];
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers of another size are dropped.
+     */
+    public void release(byte[] buffer) {
+        if (buffer.length != bufferSize) {
+            return;
+        }
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+        buffers.offer(buffer);
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ewpesmart.internal.network;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link EWPESubnet} is an IPv4 subnet given in CIDR notation, e.g. "10.0.8.0/22",
+ * whose hosts can be swept one by one. Subnets larger than a /20 are rejected, so a
+ * typo cannot start a sweep of millions of addresses.
+ *
+ * @author Pawel Bogut - Initial contribution
+ */
+@NonNullByDefault
+public class EWPESubnet {
+
+    public static final int MINIMUM_PREFIX_LENGTH = 20;
+
+    private final int network;
+    private final int prefixLength;
+
+    private EWPESubnet(int network, int prefixLength) {
+        this.network = network;
+        this.prefixLength = prefixLength;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the text is no IPv4 subnet of at most /20
+     */
+    public static EWPESubnet parse(String cidr) {
+        int slash = cidr.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("Subnet " + cidr + " has no prefix length");
+        }
+        int prefixLength;
+        InetAddress address;
+        try {
+            prefixLength = Integer.parseInt(cidr.substring(slash + 1).trim());
+            address = InetAddress.getByName(cidr.substring(0, slash).trim());
+        } catch (NumberFormatException | UnknownHostException e) {
+            throw new IllegalArgumentException("Subnet " + cidr + " is invalid", e);
+        }
+        if (!(address instanceof Inet4Address)) {
+            throw new IllegalArgumentException("Subnet " + cidr + " is no IPv4 subnet");
+        }
+        if (prefixLength < MINIMUM_PREFIX_LENGTH || prefixLength > 32) {
+            throw new IllegalArgumentException(
+                    "Prefix length of subnet " + cidr + " must be between " + MINIMUM_PREFIX_LENGTH + " and 32");
+        }
+        byte[] bytes = address.getAddress();
+        int value = (bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | (bytes[3] & 0xff);
+        return new EWPESubnet(value & mask(prefixLength), prefixLength);
+    }
+
+    /**
+     * Returns the number of hosts, which excludes the network and broadcast address of
+     * subnets that have them.
+     */
+    public int getHostCount() {
+        int size = 1 << (32 - prefixLength);
+        return size > 2 ? size - 2 : size;
+    }
+
+    /**
+     * @param index the host, from 0 to {@link #getHostCount()} - 1
+     */
+    public InetAddress getHost(int index) {
+        int first = (1 << (32 - prefixLength)) > 2 ? 1 : 0;
+        return toAddress(network + first + index);
+    }
+
+    public InetAddress getBroadcast() {
+        return toAddress(network | ~mask(prefixLength));
+    }
+
+    @Override
+    public String toString() {
+        return toAddress(network).getHostAddress() + "/" + prefixLength;
+    }
+
+    private static int mask(int prefixLength) {
+        return prefixLength == 0 ? 0 : -1 << (32 - prefixLength);
+    }
+
+    private static InetAddress toAddress(int value) {
+        byte[] bytes = new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8),
+                (byte) value };
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            // only thrown for an address of illegal length
+            throw new IllegalStateException(e);
+        }
+    }
+}
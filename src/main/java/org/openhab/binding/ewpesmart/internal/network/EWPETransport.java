@@ -0,0 +1,321 @@
+/**
+ * Copyright (c) 2010-2020 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.openhab.binding.ewpesmart.internal.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link EWPETransport} is the binding wide UDP transport. All air conditioners
+ * and the discovery service share one non-blocking {@link DatagramChannel}, which is
+ * served by a single receiver thread. Inbound datagrams are routed to the listener
+ * registered for their source address and port. A single timer thread drives request
+ * timeouts, so no thread has to block while waiting for a device to respond.
+ *
+ * @author Pawel Bogut - Initial contribution
+ */
+@NonNullByDefault
+@Component(service = EWPETransport.class)
+public class EWPETransport {
+
+    /**
+     * Receives datagrams from the transport. Called on the receiver thread, so
+     * implementations must not block. The datagram occupies data[offset, offset + length)
+     * of a buffer that is reused once the call returns, so it has to be copied to be kept.
+     */
+    public interface Listener {
+        void datagramReceived(InetSocketAddress source, byte[] data, int offset, int length);
+    }
+
+    private static final int DEFAULT_MTU = 1500;
+    private static final int MIN_MTU = 576;
+    private static final int IP_UDP_HEADER_SIZE = 28;
+    private static final int MAX_POOLED_BUFFERS = 16;
+    private static final int RECEIVE_ERROR_PAUSE = 100;
+
+    private final Logger logger = LoggerFactory.getLogger(EWPETransport.class);
+    private final Map<InetSocketAddress, Listener> listeners = new ConcurrentHashMap<>();
+    private final List<Listener> unroutedListeners = new CopyOnWriteArrayList<>();
+
+    private @Nullable DatagramChannel channel;
+    private @Nullable Selector selector;
+    private @Nullable Thread receiver;
+    private @Nullable ScheduledExecutorService timer;
+    private volatile EWPEBufferPool bufferPool = new EWPEBufferPool(DEFAULT_MTU - IP_UDP_HEADER_SIZE, MAX_POOLED_BUFFERS);
+
+    @Activate
+    protected void activate() throws IOException {
+        open();
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        close();
+    }
+
+    public synchronized void open() throws IOException {
+        if (channel != null) {
+            return;
+        }
+        DatagramChannel newChannel = DatagramChannel.open();
+        newChannel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+        newChannel.configureBlocking(false);
+        newChannel.bind(null);
+
+        Selector newSelector = Selector.open();
+        newChannel.register(newSelector, SelectionKey.OP_READ);
+
+        channel = newChannel;
+        selector = newSelector;
+        int maxDatagramSize = getMaxDatagramSize();
+        if (bufferPool.getBufferSize() != maxDatagramSize) {
+            bufferPool = new EWPEBufferPool(maxDatagramSize, MAX_POOLED_BUFFERS);
+        }
+
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "EWPESmart-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Thread newReceiver = new Thread(() -> receiveLoop(newChannel, newSelector), "EWPESmart-transport");
+        newReceiver.setDaemon(true);
+        receiver = newReceiver;
+        newReceiver.start();
+        logger.debug("EWPESmart: transport listening on {} for datagrams up to {} bytes",
+                newChannel.getLocalAddress(), maxDatagramSize);
+    }
+
+    /**
+     * Returns the largest datagram that fits in the MTU of the network interfaces, which
+     * is what the air conditioners can send without fragmentation.
+     */
+    private int getMaxDatagramSize() {
+        int mtu = 0;
+        try {
+            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+            while (interfaces != null && interfaces.hasMoreElements()) {
+                NetworkInterface networkInterface = interfaces.nextElement();
+                if (networkInterface.isUp() && !networkInterface.isLoopback()) {
+                    mtu = Math.max(mtu, networkInterface.getMTU());
+                }
+            }
+        } catch (SocketException e) {
+            logger.debug("EWPESmart: failed to read the MTU of the network interfaces due to {}", e.getMessage());
+        }
+        if (mtu <= 0) {
+            mtu = DEFAULT_MTU;
+        }
+        return Math.max(mtu, MIN_MTU) - IP_UDP_HEADER_SIZE;
+    }
+
+    /**
+     * Returns the pool of buffers sized to hold any datagram received by this transport.
+     */
+    public EWPEBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public synchronized void close() {
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            logger.debug("EWPESmart: failed to close transport due to {}", e.getMessage());
+        }
+        if (receiver != null) {
+            receiver.interrupt();
+        }
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        timer = null;
+        selector = null;
+        channel = null;
+        receiver = null;
+        listeners.clear();
+        unroutedListeners.clear();
+    }
+
+    /**
+     * Sends a single datagram. The channel is non-blocking, so a full socket send
+     * buffer is reported as an {@link IOException} rather than stalling the caller.
+     */
+    public void send(InetSocketAddress target, byte[] data) throws IOException {
+        DatagramChannel currentChannel = channel;
+        if (currentChannel == null) {
+            throw new IOException("EWPESmart transport is not open");
+        }
+        int sent = currentChannel.send(ByteBuffer.wrap(data), target);
+        if (sent == 0) {
+            throw new IOException("EWPESmart transport send buffer is full");
+        }
+    }
+
+    /**
+     * Sends a single datagram unless the socket send buffer is full.
+     *
+     * @return false if the datagram was not sent because the send buffer is full
+     */
+    public boolean trySend(InetSocketAddress target, byte[] data) throws IOException {
+        DatagramChannel currentChannel = channel;
+        if (currentChannel == null) {
+            throw new IOException("EWPESmart transport is not open");
+        }
+        return currentChannel.send(ByteBuffer.wrap(data), target) > 0;
+    }
+
+    /**
+     * Schedules a task on the transport timer, e.g. the timeout of a pending request.
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        ScheduledExecutorService currentTimer = timer;
+        if (currentTimer == null) {
+            throw new IllegalStateException("EWPESmart transport is not open");
+        }
+        return currentTimer.schedule(task, delay, unit);
+    }
+
+    /**
+     * Routes all datagrams coming from the given address to the listener.
+     */
+    public void register(InetSocketAddress source, Listener listener) {
+        listeners.put(source, listener);
+    }
+
+    public void unregister(InetSocketAddress source, Listener listener) {
+        listeners.remove(source, listener);
+    }
+
+    /**
+     * Adds a listener that receives every datagram from a source no listener was
+     * registered for, e.g. replies to a broadcast scan. Datagrams of registered devices,
+     * like their status replies, are never passed to it.
+     */
+    public void addUnroutedListener(Listener listener) {
+        unroutedListeners.add(listener);
+    }
+
+    public void removeUnroutedListener(Listener listener) {
+        unroutedListeners.remove(listener);
+    }
+
+    private void receiveLoop(DatagramChannel receiveChannel, Selector receiveSelector) {
+        EWPEBufferPool pool = bufferPool;
+        byte[] data = pool.acquire();
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        try {
+            while (receiveChannel.isOpen()) {
+                try {
+                    receiveSelector.select();
+                    receiveSelector.selectedKeys().clear();
+
+                    while (true) {
+                        buffer.clear();
+                        SocketAddress source = receiveChannel.receive(buffer);
+                        if (source == null) {
+                            break;
+                        }
+                        if (!buffer.hasRemaining()) {
+                            // a datagram filling the whole buffer may have been truncated by the channel
+                            logger.debug("EWPESmart: dropping datagram from {} exceeding {} bytes", source,
+                                    data.length);
+                            continue;
+                        }
+                        dispatch((InetSocketAddress) source, data, buffer.position());
+                    }
+                } catch (ClosedChannelException e) {
+                    // transport was closed
+                    break;
+                } catch (IOException e) {
+                    // e.g. an ICMP error reported for an earlier send, the channel is still usable
+                    if (receiveChannel.isOpen()) {
+                        logger.warn("EWPESmart: transport failed to receive due to {}", e.getMessage());
+                        if (!pauseAfterError()) {
+                            break;
+                        }
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // transport was closed
+        } finally {
+            pool.release(data);
+        }
+    }
+
+    /**
+     * Keeps an error that persists from turning the receive loop into a busy loop.
+     *
+     * @return false if the receiver was interrupted
+     */
+    private boolean pauseAfterError() {
+        try {
+            Thread.sleep(RECEIVE_ERROR_PAUSE);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void dispatch(InetSocketAddress source, byte[] data, int length) {
+        Listener listener = listeners.get(source);
+        if (listener == null && unroutedListeners.isEmpty()) {
+            logger.trace("EWPESmart: dropping datagram from unknown source {}", source);
+            return;
+        }
+        try {
+            if (listener != null) {
+                listener.datagramReceived(source, data, 0, length);
+                return;
+            }
+            for (Listener unroutedListener : unroutedListeners) {
+                unroutedListener.datagramReceived(source, data, 0, length);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("EWPESmart: failed to handle datagram from {} due to {}", source, e.getMessage());
+        }
+    }
+}